@@ -15,12 +15,15 @@
  */
 package org.trustedanalytics.das.dataflow;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableSet;
 import org.trustedanalytics.das.service.BadRequestException;
 import org.trustedanalytics.das.service.FlowHandler;
 import org.trustedanalytics.das.service.RequestFlowForExistingFile;
 import org.trustedanalytics.das.service.RequestFlowForNewFile;
 import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.RequestMessage;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.trustedanalytics.das.store.RequestStore;
@@ -30,11 +33,26 @@ import java.util.function.Function;
 @Configuration
 public class FlowConfiguration {
 
+    @Value("${pipeline.snapshotsInQueue:false}")
+    private boolean snapshotsInQueue;
+
+    @Value("${pipeline.queueKey:ORG}")
+    private QueueKeyStrategy queueKey;
+
+    @Value("${pipeline.fairness.enabled:false}")
+    private boolean fairness;
+
+    @Bean
+    public RequestMessage.Codec requestMessageCodec(ObjectMapper objectMapper) {
+        return new RequestMessage.Codec(objectMapper);
+    }
+
     @Bean
     public FlowManager flowManager(BlockingRequestIdQueue toRequestsParser,
                                    BlockingRequestIdQueue toDownloader, BlockingRequestIdQueue toMetadataParser,
-                                   RequestStore requestStore) {
-        return new FlowManager(toRequestsParser, toDownloader, toMetadataParser, requestStore);
+                                   RequestStore requestStore, RequestMessage.Codec requestMessageCodec) {
+        return new FlowManager(toRequestsParser, toDownloader, toMetadataParser, requestStore, snapshotsInQueue,
+                queueKey, fairness, requestMessageCodec);
     }
 
     @Bean
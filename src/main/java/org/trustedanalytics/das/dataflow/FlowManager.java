@@ -21,8 +21,16 @@ import static org.trustedanalytics.das.parser.State.FINISHED;
 import static org.trustedanalytics.das.parser.State.NEW;
 import static org.trustedanalytics.das.parser.State.VALIDATED;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 import org.trustedanalytics.das.parser.State;
 import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.QueueFullException;
+import org.trustedanalytics.das.store.RequestMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,16 +49,34 @@ public class FlowManager {
     private BlockingRequestIdQueue toDownloader;
     private BlockingRequestIdQueue toMetadataParser;
     private final RequestStore requestStore;
+    private final boolean snapshotsInQueue;
+    private final QueueKeyStrategy keyStrategy;
+    private final boolean orgsInQueue;
+    private final RequestMessage.Codec messages;
 
+    /**
+     * @param snapshotsInQueue whether queue messages carry whole request instead of its id only
+     * @param keyStrategy key requests are queued with
+     * @param orgsInQueue whether queue messages carry organization of request, required by fair
+     *                    scheduling of stages; implied by snapshotsInQueue
+     */
     public FlowManager(
             BlockingRequestIdQueue toRequestParser,
             BlockingRequestIdQueue toDownloader,
             BlockingRequestIdQueue toMetadataParser,
-            RequestStore requestStore) {
+            RequestStore requestStore,
+            boolean snapshotsInQueue,
+            QueueKeyStrategy keyStrategy,
+            boolean orgsInQueue,
+            RequestMessage.Codec messages) {
         this.toRequestParser = toRequestParser;
         this.toDownloader = toDownloader;
         this.toMetadataParser = toMetadataParser;
         this.requestStore = requestStore;
+        this.snapshotsInQueue = snapshotsInQueue;
+        this.keyStrategy = keyStrategy;
+        this.orgsInQueue = orgsInQueue;
+        this.messages = messages;
     }
 
     public Request newRequest(Request request) {
@@ -65,6 +91,14 @@ public class FlowManager {
         return advanceState(request, DOWNLOADED, toMetadataParser, "requestDownloaded({})");
     }
 
+    public List<Request> newRequests(List<Request> requests) {
+        return advanceStates(requests, NEW, toRequestParser);
+    }
+
+    public List<Request> requestsDownloaded(List<Request> requests) {
+        return advanceStates(requests, DOWNLOADED, toMetadataParser);
+    }
+
     public Request requestUploaded(Request request) {
         Request newRequest = request.changeState(State.NEW);
         Request validatedRequest = newRequest.changeState(State.VALIDATED);
@@ -97,14 +131,63 @@ public class FlowManager {
         return requestInNewState;
     }
 
+    private List<Request> advanceStates(List<Request> requests, State newState, BlockingRequestIdQueue destinationQueue) {
+        List<Request> requestsInNewState = requests.stream()
+                .map(request -> request.changeState(newState))
+                .collect(Collectors.toList());
+        LOGGER.debug("advanceStates({}, {} requests)", newState, requests.size());
+        enqueueAll(destinationQueue, requestsInNewState);
+        return requestsInNewState;
+    }
+
+    private void enqueueAll(BlockingRequestIdQueue queue, List<Request> items) {
+        requestStore.putAll(items);
+        LOGGER.info("Added {} items to request store", items.size());
+        Map<String, Request> byMessage = new LinkedHashMap<>();
+        items.forEach(item -> byMessage.put(toMessage(item), item));
+        Map<String, String> keysByMessage = new LinkedHashMap<>();
+        byMessage.forEach((message, item) -> keysByMessage.put(message, keyStrategy.key(item)));
+        try {
+            queue.offerAll(keysByMessage);
+            LOGGER.info("Added {} items to queue", items.size());
+        } catch (QueueFullException e) {
+            throw failRejected(e, e.getRejected().stream().map(byMessage::get).collect(Collectors.toList()));
+        } catch (Exception e) {
+            Throwables.propagate(e);
+        }
+    }
+
     private void enqueue(BlockingRequestIdQueue queue, Request item) {
         requestStore.put(item);
         LOGGER.info("Adding item to request store {}", item);
         try {
-            queue.offer(item.getId());
+            queue.offer(toMessage(item), keyStrategy.key(item));
             LOGGER.info("Added item to queue");
+        } catch (QueueFullException e) {
+            throw failRejected(e, Collections.singletonList(item));
         } catch (Exception e) {
             Throwables.propagate(e);
         }
     }
+
+    /**
+     * Requests that didn't fit in queue would stay in their state forever, they are marked as
+     * failed instead.
+     * @return exception listing ids of the failed requests
+     */
+    private QueueFullException failRejected(QueueFullException e, List<Request> rejected) {
+        LOGGER.warn("{}, failing {} requests", e.getMessage(), rejected.size());
+        requestStore.putAll(rejected.stream()
+                .map(request -> request.changeState(ERROR))
+                .collect(Collectors.toList()));
+        return new QueueFullException(e.getMessage(),
+                rejected.stream().map(Request::getId).collect(Collectors.toList()));
+    }
+
+    private String toMessage(Request request) {
+        if (snapshotsInQueue) {
+            return messages.encode(request);
+        }
+        return orgsInQueue ? messages.encode(request.getId(), request.getOrgUUID()) : request.getId();
+    }
 }
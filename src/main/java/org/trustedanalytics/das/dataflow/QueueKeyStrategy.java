@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.dataflow;
+
+import org.trustedanalytics.das.parser.Request;
+
+/**
+ * Key requests are queued with. Partitioned queues keep requests of the same key in the same
+ * partition, in order.
+ */
+public enum QueueKeyStrategy {
+    /**
+     * No key, requests are spread over all partitions.
+     */
+    NONE {
+        @Override
+        public String key(Request request) {
+            return null;
+        }
+    },
+    /**
+     * Requests of an organization go to single partition. They keep their order and are
+     * processed by the same consumer, and one organization can't occupy all partitions.
+     */
+    ORG {
+        @Override
+        public String key(Request request) {
+            return request.getOrgUUID();
+        }
+    };
+
+    public abstract String key(Request request);
+}
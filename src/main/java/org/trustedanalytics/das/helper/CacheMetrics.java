@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.helper;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Exposes statistics of a Guava cache built with recordStats() under given prefix.
+ */
+public class CacheMetrics implements PublicMetrics {
+
+    private final String prefix;
+
+    private final Cache<?, ?> cache;
+
+    public CacheMetrics(String prefix, Cache<?, ?> cache) {
+        this.prefix = prefix;
+        this.cache = cache;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        CacheStats stats = cache.stats();
+        return Arrays.asList(
+            new Metric<>(prefix + ".size", cache.size()),
+            new Metric<>(prefix + ".hits", stats.hitCount()),
+            new Metric<>(prefix + ".misses", stats.missCount()),
+            new Metric<>(prefix + ".evictions", stats.evictionCount()),
+            new Metric<>(prefix + ".load.failures", stats.loadExceptionCount()),
+            new Metric<>(prefix + ".load.time.avg",
+                TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty())));
+    }
+}
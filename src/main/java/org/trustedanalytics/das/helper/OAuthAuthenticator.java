@@ -15,26 +15,21 @@
  */
 package org.trustedanalytics.das.helper;
 
-import org.trustedanalytics.cloud.auth.HeaderAddingHttpInterceptor;
-
 import org.springframework.http.HttpHeaders;
-import org.springframework.web.client.RestOperations;
-import org.springframework.web.client.RestTemplate;
 
-import java.util.Collections;
 import java.util.Objects;
 
 /**
- * RestOperations will be authenticated using oauth token
+ * Calls will be authenticated using oauth token
  */
 public class OAuthAuthenticator implements RestTokenAuthenticator {
 
   @Override
-  public void authenticate(RestOperations restTemplate, String token) {
-    Objects.requireNonNull(restTemplate);
+  public HttpHeaders authenticate(String token) {
     Objects.requireNonNull(token);
 
-    ((RestTemplate) restTemplate).setInterceptors(Collections.singletonList(new HeaderAddingHttpInterceptor(
-        HttpHeaders.AUTHORIZATION, "bearer " + token)));
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.AUTHORIZATION, "bearer " + token);
+    return headers;
   }
 }
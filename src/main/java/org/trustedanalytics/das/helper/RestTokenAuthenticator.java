@@ -15,9 +15,12 @@
  */
 package org.trustedanalytics.das.helper;
 
-import org.springframework.web.client.RestOperations;
+import org.springframework.http.HttpHeaders;
 
+/**
+ * Creates headers authenticating single call, so shared RestOperations are never modified.
+ */
 @FunctionalInterface
 public interface RestTokenAuthenticator {
-    void authenticate(RestOperations restTemplate, String token);
+    HttpHeaders authenticate(String token);
 }
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.http;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.pool.PoolStats;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+/**
+ * Single pool of keep-alive connections shared by all clients of downstream services.
+ */
+@Configuration
+public class HttpClientConfiguration {
+
+    @Bean(destroyMethod = "shutdown")
+    public PoolingHttpClientConnectionManager httpConnectionManager(HttpClientProperties properties) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(properties.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(properties.getMaxPerRoute());
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager httpConnectionManager,
+                                          HttpClientProperties properties) {
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(properties.getConnectTimeoutMs())
+            .setSocketTimeout(properties.getReadTimeoutMs())
+            .setConnectionRequestTimeout(properties.getConnectionRequestTimeoutMs())
+            .build();
+        return HttpClients.custom()
+            .setConnectionManager(httpConnectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy((response, context) -> {
+                long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return keepAlive > 0 ? Math.min(keepAlive, properties.getKeepAliveMs()) : properties.getKeepAliveMs();
+            })
+            .evictExpiredConnections()
+            .evictIdleConnections(properties.getMaxIdleMs(), TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    /**
+     * Non-blocking client used by stages keeping many calls in flight. It has its own pool with
+     * the same limits and timeouts.
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public CloseableHttpAsyncClient httpAsyncClient(HttpClientProperties properties) {
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(properties.getConnectTimeoutMs())
+            .setSocketTimeout(properties.getReadTimeoutMs())
+            .setConnectionRequestTimeout(properties.getConnectionRequestTimeoutMs())
+            .build();
+        return HttpAsyncClients.custom()
+            .setMaxConnTotal(properties.getMaxTotal())
+            .setMaxConnPerRoute(properties.getMaxPerRoute())
+            .setDefaultRequestConfig(requestConfig)
+            .build();
+    }
+
+    @Bean
+    public AsyncClientHttpRequestFactory asyncClientHttpRequestFactory(CloseableHttpAsyncClient httpAsyncClient) {
+        return new HttpComponentsAsyncClientHttpRequestFactory(httpAsyncClient);
+    }
+
+    @Bean
+    public ClientHttpRequestFactory clientHttpRequestFactory(CloseableHttpClient httpClient) {
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+    @Bean
+    public PublicMetrics httpConnectionPoolMetrics(PoolingHttpClientConnectionManager httpConnectionManager) {
+        return () -> {
+            PoolStats stats = httpConnectionManager.getTotalStats();
+            return Arrays.asList(
+                new Metric<>("http.client.pool.leased", stats.getLeased()),
+                new Metric<>("http.client.pool.available", stats.getAvailable()),
+                new Metric<>("http.client.pool.pending", stats.getPending()),
+                new Metric<>("http.client.pool.max", stats.getMax()));
+        };
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.http;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "http.client")
+public class HttpClientProperties {
+    @Getter @Setter
+    private int maxTotal = 200;
+
+    @Getter @Setter
+    private int maxPerRoute = 50;
+
+    @Getter @Setter
+    private int connectTimeoutMs = 5000;
+
+    @Getter @Setter
+    private int readTimeoutMs = 30000;
+
+    /**
+     * How long a request waits for a connection from the pool.
+     */
+    @Getter @Setter
+    private int connectionRequestTimeoutMs = 5000;
+
+    /**
+     * Upper limit of keep-alive, used also when server does not send Keep-Alive header.
+     */
+    @Getter @Setter
+    private long keepAliveMs = 30000;
+
+    @Getter @Setter
+    private long maxIdleMs = 60000;
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.kafka;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Offsets of records taken by single consumer. Offset to commit for partition is the lowest one
+ * not acknowledged yet, or the one after the last taken record when all are acknowledged, so
+ * records still processed are consumed again after restart or rebalance.
+ * <p>
+ * Records are taken by consumer thread, acknowledgements come from any thread.
+ * <p>
+ * It is shared by the legacy consumer and the Java client, so it uses only classes present in
+ * kafka-clients of both versions.
+ */
+class AckedOffsets {
+
+    private final Map<TopicPartition, PartitionOffsets> partitions = new HashMap<>();
+
+    private int acknowledgedSinceCommit;
+
+    synchronized void taken(TopicPartition partition, long offset) {
+        PartitionOffsets offsets = partitions.computeIfAbsent(partition, p -> new PartitionOffsets());
+        offsets.unacknowledged.add(offset);
+        offsets.next = Math.max(offsets.next, offset + 1);
+    }
+
+    synchronized void acknowledged(TopicPartition partition, long offset) {
+        PartitionOffsets offsets = partitions.get(partition);
+        if (offsets != null && offsets.unacknowledged.remove(offset)) {
+            acknowledgedSinceCommit++;
+        }
+    }
+
+    synchronized int getAcknowledgedSinceCommit() {
+        return acknowledgedSinceCommit;
+    }
+
+    /**
+     * Offsets moved since previous call, they are considered committed from now on.
+     */
+    synchronized Map<TopicPartition, Long> toCommit() {
+        Map<TopicPartition, Long> toCommit = new HashMap<>();
+        partitions.forEach((partition, offsets) -> {
+            long committable = offsets.committable();
+            if (committable > offsets.committed) {
+                toCommit.put(partition, committable);
+                offsets.committed = committable;
+            }
+        });
+        acknowledgedSinceCommit = 0;
+        return toCommit;
+    }
+
+    /**
+     * Forgets partitions assigned to other consumer, their late acknowledgements are ignored.
+     */
+    synchronized void revoked(Collection<TopicPartition> revoked) {
+        revoked.forEach(partitions::remove);
+    }
+
+    private static class PartitionOffsets {
+
+        private final SortedSet<Long> unacknowledged = new TreeSet<>();
+
+        private long next;
+
+        private long committed = -1;
+
+        long committable() {
+            return unacknowledged.isEmpty() ? next : unacknowledged.first();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.QueueFullException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Queue on the Java Kafka client. Offered messages are sent together, producer batches them
+ * according to its linger.ms, batch.size and compression.type settings, and then offer waits
+ * until broker confirms them. Messages that are not confirmed are reported with
+ * {@link QueueFullException}.
+ * <p>
+ * Consumer is not thread safe, so every thread taking from queue gets its own one, all of them in
+ * the same group. Partitions of topic are divided among them. Thread that stops taking closes its
+ * consumer with {@link #release()}, so that its partitions go to the others.
+ * <p>
+ * Offsets are committed by consumer threads, only up to the first record not acknowledged yet.
+ * Acknowledgements are collected and committed together according to commit policy.
+ */
+public class KafkaClientRequestIdQueue implements BlockingRequestIdQueue, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaClientRequestIdQueue.class);
+
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private static final String AUTO_COMMIT = "enable.auto.commit";
+
+    /**
+     * Longest wait for broker to confirm offered messages, producer gives up on its own after
+     * its request.timeout.ms.
+     */
+    private static final long SEND_TIMEOUT_MS = 60000;
+
+    private final String topic;
+
+    private final Producer<String, String> producer;
+
+    private final Supplier<Consumer<String, String>> consumerFactory;
+
+    private final OffsetCommitPolicy commitPolicy;
+
+    private final long sendTimeoutMillis;
+
+    private final List<Consumer<String, String>> consumers = new CopyOnWriteArrayList<>();
+
+    private final ThreadLocal<ThreadConsumer> threadConsumer = new ThreadLocal<>();
+
+    private final PendingDeliveries<Delivery> deliveries = new PendingDeliveries<>();
+
+    private volatile boolean closed;
+
+    public KafkaClientRequestIdQueue(String topic, Properties producerProperties, Properties consumerProperties,
+                                     OffsetCommitPolicy commitPolicy) {
+        this(topic, new KafkaProducer<>(producerProperties, new StringSerializer(), new StringSerializer()),
+            consumerFactory(consumerProperties), commitPolicy, SEND_TIMEOUT_MS);
+    }
+
+    KafkaClientRequestIdQueue(String topic, Producer<String, String> producer,
+                              Supplier<Consumer<String, String>> consumerFactory, OffsetCommitPolicy commitPolicy,
+                              long sendTimeoutMillis) {
+        this.topic = topic;
+        this.producer = producer;
+        this.consumerFactory = consumerFactory;
+        this.commitPolicy = commitPolicy;
+        this.sendTimeoutMillis = sendTimeoutMillis;
+    }
+
+    private static Supplier<Consumer<String, String>> consumerFactory(Properties consumerProperties) {
+        Properties properties = new Properties();
+        properties.putAll(consumerProperties);
+        properties.put(AUTO_COMMIT, "false");
+        return () -> new KafkaConsumer<>(properties, new StringDeserializer(), new StringDeserializer());
+    }
+
+    @Override
+    public void offer(String item) {
+        offer(item, null);
+    }
+
+    /**
+     * Partitioner hashes the key, items without key are spread round robin.
+     */
+    @Override
+    public void offer(String item, String key) {
+        offerAll(Collections.singletonMap(item, key));
+    }
+
+    @Override
+    public void offerAll(Collection<String> items) {
+        Map<String, String> keysByItem = new LinkedHashMap<>();
+        items.forEach(item -> keysByItem.put(item, null));
+        offerAll(keysByItem);
+    }
+
+    /**
+     * Items are sent without waiting for each other, so that producer can put them in as few
+     * batches as possible, then their delivery is awaited.
+     * @throws QueueFullException listing items broker didn't confirm in time
+     */
+    @Override
+    public void offerAll(Map<String, String> keysByItem) {
+        Map<String, Future<RecordMetadata>> sent = new LinkedHashMap<>();
+        List<String> rejected = new ArrayList<>();
+        Exception failure = null;
+        for (Map.Entry<String, String> entry : keysByItem.entrySet()) {
+            try {
+                sent.put(entry.getKey(), producer.send(new ProducerRecord<>(topic, entry.getValue(), entry.getKey())));
+            } catch (RuntimeException e) {
+                rejected.add(entry.getKey());
+                failure = e;
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        for (Map.Entry<String, Future<RecordMetadata>> entry : sent.entrySet()) {
+            try {
+                entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                rejected.add(entry.getKey());
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.add(entry.getKey());
+                failure = e;
+            }
+        }
+        if (!rejected.isEmpty()) {
+            LOGGER.error("Failed to send " + rejected.size() + " messages to " + topic, failure);
+            throw new QueueFullException("Failed to send messages to " + topic, rejected);
+        }
+    }
+
+    @Override
+    public String take() throws InterruptedException {
+        ThreadConsumer consumer = consumer();
+        consumer.commitIfDue();
+        while (consumer.buffer.isEmpty()) {
+            if (!consumer.poll(POLL_TIMEOUT_MS)) {
+                return null;
+            }
+            checkInterrupted();
+        }
+        return consumer.next();
+    }
+
+    @Override
+    public List<String> drainTo(int max, long timeout, TimeUnit unit) throws InterruptedException {
+        ThreadConsumer consumer = consumer();
+        consumer.commitIfDue();
+        if (consumer.buffer.isEmpty() && !consumer.poll(unit.toMillis(timeout))) {
+            return Collections.emptyList();
+        }
+        List<String> items = new ArrayList<>(Math.min(max, consumer.buffer.size()));
+        while (items.size() < max && !consumer.buffer.isEmpty()) {
+            items.add(consumer.next());
+        }
+        return items;
+    }
+
+    /**
+     * Offset is committed by thread which took the record, on its next take.
+     */
+    @Override
+    public void ack(String item) {
+        Delivery delivery = deliveries.remove(item);
+        if (delivery != null) {
+            delivery.consumer.offsets.acknowledged(delivery.partition, delivery.offset);
+        }
+    }
+
+    /**
+     * Item is sent to the topic again, with the key of its record. The record is acknowledged once
+     * the copy is delivered, so that it doesn't hold back offsets of the following ones; if the
+     * copy is not delivered, the record is consumed again after restart or rebalance.
+     */
+    @Override
+    public void nack(String item) {
+        if (item == null) {
+            return;
+        }
+        Delivery delivery = deliveries.remove(item);
+        producer.send(new ProducerRecord<>(topic, delivery != null ? delivery.key : null, item), (metadata, e) -> {
+            if (e != null) {
+                LOGGER.error("Failed to send " + item + " to " + topic + " again", e);
+            } else if (delivery != null) {
+                delivery.consumer.offsets.acknowledged(delivery.partition, delivery.offset);
+            }
+        });
+    }
+
+    /**
+     * Closes consumer of the calling thread, its partitions are assigned to other consumers.
+     */
+    @Override
+    public void release() {
+        ThreadConsumer consumer = threadConsumer.get();
+        if (consumer != null) {
+            threadConsumer.remove();
+            consumer.close();
+        }
+    }
+
+    /**
+     * Consumers are woken up and closed by their threads on their next poll.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        consumers.forEach(Consumer::wakeup);
+        producer.close();
+    }
+
+    private ThreadConsumer consumer() {
+        ThreadConsumer consumer = threadConsumer.get();
+        if (consumer == null) {
+            consumer = new ThreadConsumer();
+            threadConsumer.set(consumer);
+        }
+        return consumer;
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Record taken from queue, waiting for acknowledgement.
+     */
+    private static class Delivery {
+
+        private final ThreadConsumer consumer;
+
+        private final TopicPartition partition;
+
+        private final long offset;
+
+        private final String key;
+
+        Delivery(ThreadConsumer consumer, TopicPartition partition, long offset, String key) {
+            this.consumer = consumer;
+            this.partition = partition;
+            this.offset = offset;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Consumer of single thread with records fetched but not taken yet.
+     */
+    private class ThreadConsumer implements ConsumerRebalanceListener {
+
+        private final Consumer<String, String> consumer;
+
+        private final Deque<ConsumerRecord<String, String>> buffer = new ArrayDeque<>();
+
+        private final AckedOffsets offsets = new AckedOffsets();
+
+        private long lastCommitNanos = System.nanoTime();
+
+        private boolean open = true;
+
+        ThreadConsumer() {
+            consumer = consumerFactory.get();
+            consumer.subscribe(Collections.singletonList(topic), this);
+            consumers.add(consumer);
+        }
+
+        /**
+         * @return false when queue was closed
+         */
+        boolean poll(long timeoutMillis) {
+            if (closed) {
+                close();
+                return false;
+            }
+            try {
+                for (ConsumerRecord<String, String> record : consumer.poll(timeoutMillis)) {
+                    buffer.add(record);
+                }
+                return true;
+            } catch (WakeupException e) {
+                close();
+                return false;
+            }
+        }
+
+        String next() {
+            ConsumerRecord<String, String> record = buffer.poll();
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            offsets.taken(partition, record.offset());
+            if (record.value() == null) {
+                offsets.acknowledged(partition, record.offset());
+            } else {
+                deliveries.add(record.value(), new Delivery(this, partition, record.offset(), record.key()));
+            }
+            return record.value();
+        }
+
+        void commitIfDue() {
+            if (open && commitPolicy.isDue(offsets.getAcknowledgedSinceCommit(), lastCommitNanos)) {
+                Map<TopicPartition, OffsetAndMetadata> toCommit = toCommit();
+                if (!toCommit.isEmpty()) {
+                    consumer.commitAsync(toCommit, (committed, e) -> {
+                        if (e != null) {
+                            LOGGER.warn("Failed to commit offsets " + committed, e);
+                        }
+                    });
+                }
+                lastCommitNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Commits what was acknowledged, before partitions go to other consumer. Records of
+         * revoked partitions not taken yet are consumed by that consumer.
+         */
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            commitSync();
+            offsets.revoked(partitions);
+            buffer.removeIf(record -> partitions.contains(new TopicPartition(record.topic(), record.partition())));
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        }
+
+        private void commitSync() {
+            try {
+                Map<TopicPartition, OffsetAndMetadata> toCommit = toCommit();
+                if (!toCommit.isEmpty()) {
+                    consumer.commitSync(toCommit);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to commit offsets of " + topic, e);
+            }
+        }
+
+        private Map<TopicPartition, OffsetAndMetadata> toCommit() {
+            Map<TopicPartition, OffsetAndMetadata> toCommit = new HashMap<>();
+            offsets.toCommit().forEach((partition, offset) -> toCommit.put(partition, new OffsetAndMetadata(offset)));
+            return toCommit;
+        }
+
+        private void close() {
+            if (open) {
+                open = false;
+                commitSync();
+                consumers.remove(consumer);
+                consumer.close();
+            }
+        }
+    }
+}
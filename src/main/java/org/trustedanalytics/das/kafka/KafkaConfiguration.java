@@ -26,6 +26,8 @@ import javax.validation.constraints.NotNull;
 import com.google.common.collect.Lists;
 
 import kafka.admin.AdminUtils;
+import lombok.Getter;
+import lombok.Setter;
 import org.I0Itec.zkclient.ZkClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,12 +52,39 @@ public class KafkaConfiguration {
         toRequestsParser, toMetadataParser, toDownloader
     }
 
+    private static final String CLIENTS_API = "clients";
+
+    private static final String BOOTSTRAP_SERVERS = "bootstrap.servers";
+
+    private static final String GROUP_ID = "group.id";
+
     private final static Logger logger = LoggerFactory.getLogger(KafkaConfiguration.class);
 
     private Map<String, String> producer = new HashMap<>();
 
     private Map<String, String> consumer = new HashMap<>();
 
+    /**
+     * legacy - Scala producer and ZooKeeper based consumer, clients - Java client, it needs
+     * brokers 0.9 or newer, so it can't be used with embedded Kafka
+     */
+    @Value("${kafka.api:legacy}")
+    private String api;
+
+    private Clients clients = new Clients();
+
+    /**
+     * Offsets of acknowledged messages are committed once there are that many of them...
+     */
+    @Value("${kafka.commit.batchSize:100}")
+    private int commitBatchSize;
+
+    /**
+     * ...or that much time passed since the last commit
+     */
+    @Value("${kafka.commit.intervalMs:1000}")
+    private long commitIntervalMs;
+
     @Autowired
     private Environment env;
 
@@ -73,8 +102,8 @@ public class KafkaConfiguration {
         if (isKafkaEmbededEnabled()) {
             kafka = new KafkaEmbeded();
             kafka.start();
-            topic.getTopics().values()
-                .forEach(kafka::createTopic);
+            topic.getTopics().forEach((name, topicName) ->
+                kafka.createTopic(topicName, topic.getSettings(name).getPartitions()));
         }
     }
 
@@ -127,17 +156,40 @@ public class KafkaConfiguration {
 
     @Bean
     public BlockingRequestIdQueue toRequestsParser() throws IOException {
-        return KafkaRequestIdQueue.newJsonQueue(topic.getTopics().get(TopicName.toRequestsParser.name()), getProducerProps(), getConsumerProps());
+        return newQueue(TopicName.toRequestsParser);
     }
 
     @Bean
     public BlockingRequestIdQueue toDownloader() throws IOException {
-        return KafkaRequestIdQueue.newJsonQueue(topic.getTopics().get(TopicName.toDownloader.name()), getProducerProps(), getConsumerProps());
+        return newQueue(TopicName.toDownloader);
     }
 
     @Bean
     public BlockingRequestIdQueue toMetadataParser() throws IOException {
-        return KafkaRequestIdQueue.newJsonQueue(topic.getTopics().get(TopicName.toMetadataParser.name()), getProducerProps(), getConsumerProps());
+        return newQueue(TopicName.toMetadataParser);
+    }
+
+    private BlockingRequestIdQueue newQueue(TopicName name) throws IOException {
+        if (CLIENTS_API.equals(api)) {
+            checkParamsNotNull(clients.getProducer(), BOOTSTRAP_SERVERS);
+            checkParamsNotNull(clients.getConsumer(), BOOTSTRAP_SERVERS, GROUP_ID);
+            return new KafkaClientRequestIdQueue(topic.getTopics().get(name.name()),
+                asProperties(clients.getProducer()), asProperties(clients.getConsumer()), commitPolicy());
+        }
+        return KafkaRequestIdQueue.newJsonQueue(topic.getTopics().get(name.name()),
+            topic.getSettings(name.name()).getStreams(), getProducerProps(), getConsumerProps(), commitPolicy());
+    }
+
+    private OffsetCommitPolicy commitPolicy() {
+        return new OffsetCommitPolicy(commitBatchSize, commitIntervalMs);
+    }
+
+    public Clients getClients() {
+        return clients;
+    }
+
+    public void setClients(Clients clients) {
+        this.clients = clients;
     }
 
     public Map<String, String> getProducer() {
@@ -156,4 +208,14 @@ public class KafkaConfiguration {
         this.consumer = consumer;
     }
 
+    /**
+     * Settings of the Java client producer and consumer.
+     */
+    public static class Clients {
+        @Getter @Setter
+        private Map<String, String> producer = new HashMap<>();
+
+        @Getter @Setter
+        private Map<String, String> consumer = new HashMap<>();
+    }
 }
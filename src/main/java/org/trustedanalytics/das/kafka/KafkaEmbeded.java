@@ -28,7 +28,9 @@ import kafka.utils.MockTime;
 import kafka.utils.TestUtils;
 import kafka.utils.TestZKUtils;
 import kafka.utils.Time;
+import kafka.utils.ZKGroupTopicDirs;
 import kafka.utils.ZKStringSerializer$;
+import kafka.utils.ZkUtils;
 import kafka.zk.EmbeddedZookeeper;
 
 import org.I0Itec.zkclient.ZkClient;
@@ -78,8 +80,12 @@ public class KafkaEmbeded {
     }
 
     public void createTopic(String topic) {
+        createTopic(topic, 1);
+    }
+
+    public void createTopic(String topic, int partitions) {
         logger.debug("Adding kafka topic : " + topic);
-        AdminUtils.createTopic(zkClient, topic, 1, 1, EMPTY_PROPS);
+        AdminUtils.createTopic(zkClient, topic, partitions, 1, EMPTY_PROPS);
         List<KafkaServer> servers = Lists.newArrayList(kafkaServer);
         TestUtils.waitUntilMetadataIsPropagated(scala.collection.JavaConversions.asBuffer(servers),
                 topic, 0, 5000);
@@ -109,6 +115,23 @@ public class KafkaEmbeded {
         return properties;
     }
 
+    /**
+     * @return offset committed by default consumer group, null if there is none
+     */
+    public Long getCommittedOffset(String topic, int partition) {
+        String path = new ZKGroupTopicDirs(DEFAULT_GROUP, topic).consumerOffsetDir() + "/" + partition;
+        scala.Option<String> offset = ZkUtils.readDataMaybeNull(zkClient, path)._1();
+        return offset.isDefined() ? Long.valueOf(offset.get()) : null;
+    }
+
+    /**
+     * Marks partition as owned by other consumer of default group, the way rebalance does.
+     */
+    public void setPartitionOwner(String topic, int partition, String owner) {
+        String path = new ZKGroupTopicDirs(DEFAULT_GROUP, topic).consumerOwnerDir() + "/" + partition;
+        ZkUtils.updatePersistentPath(zkClient, path, owner);
+    }
+
     public Properties getDefaultConsumerConfig() {
         Properties props = new Properties();
         props.put("zookeeper.connect", getZkServerConnectString());
@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import kafka.consumer.ConsumerConfig;
 import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
 import kafka.consumer.KafkaStream;
 import kafka.javaapi.consumer.ConsumerConnector;
 import kafka.javaapi.producer.Producer;
@@ -29,32 +30,101 @@ import kafka.producer.ProducerConfig;
 import kafka.serializer.Decoder;
 import kafka.serializer.StringDecoder;
 import kafka.utils.VerifiableProperties;
+import kafka.utils.ZKGroupTopicDirs;
+import kafka.utils.ZKStringSerializer$;
+import kafka.utils.ZkUtils;
 
+import org.I0Itec.zkclient.ZkClient;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.trustedanalytics.das.store.BlockingRequestIdQueue;
-import org.trustedanalytics.das.store.QueueItemConsumer;
+import scala.Option;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
- * TODO: check method shutdown in scala code, what does it do, is autocloseable really needed
- *
- *
+ * Topic is consumed with several streams. Thread taking from queue borrows the stream that was
+ * idle the longest, reads from it and returns it, so every stream is read whatever the number of
+ * threads is, also when workers are added or removed. Threads wait for a stream when there are
+ * more of them than streams. Reading empty stream takes consumer timeout, so a thread reading
+ * several streams is slower to find messages than a thread per stream.
+ * <p>
+ * Auto commit is turned off. Offsets are committed by threads taking from queue, for every
+ * partition only up to the first message not acknowledged yet. Consumer connector can only commit
+ * positions of all its streams at once, so offsets are written to ZooKeeper the way connector
+ * does it. Consumption doesn't wait for commits. Offset is written only when ZooKeeper lists this
+ * consumer as owner of the partition, state of partitions that moved to other consumer is dropped
+ * and late acknowledgements of their messages are ignored.
  */
 public class KafkaRequestIdQueue implements BlockingRequestIdQueue, AutoCloseable {
 
-    private static final int FIRST_ELEMENT_INDEX = 0;
+    private static final VerifiableProperties emptyProps = new VerifiableProperties();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaRequestIdQueue.class);
 
-    private static final int TOPIC_COUNT = 1;
+    private static final String CONSUMER_TIMEOUT = "consumer.timeout.ms";
 
-    private static final VerifiableProperties emptyProps = new VerifiableProperties();
+    private static final String AUTO_COMMIT = "auto.commit.enable";
+
+    private static final String CONSUMER_ID = "consumer.id";
+
+    private static final String ZOOKEEPER_OFFSETS = "zookeeper";
+
+    /**
+     * Consumer timeout used when none is configured. Iterator gives up waiting after that time,
+     * so batches can be collected without blocking on empty topic.
+     */
+    private static final String DEFAULT_CONSUMER_TIMEOUT_MS = "100";
 
     private final ConsumerConnector consumer;
 
     private final String topic;
 
-    private final ConsumerIterator<String, String> streamIterator;
+    private final int streamCount;
+
+    /**
+     * Streams not read at the moment, in order of their last read.
+     */
+    private final BlockingDeque<StreamReader> idleReaders = new LinkedBlockingDeque<>();
+
+    /**
+     * Messages offered without key are keyed round robin, so that they are spread over all
+     * partitions. Legacy producer sends messages without key to single partition until it
+     * refreshes metadata.
+     */
+    private final AtomicLong nextKey = new AtomicLong();
+
+    private final OffsetCommitPolicy commitPolicy;
+
+    private final String groupId;
+
+    /**
+     * Prefix of ids of consumer threads that connector writes as partition owners.
+     */
+    private final String ownerPrefix;
+
+    private final ZkClient zkClient;
+
+    private final AckedOffsets offsets = new AckedOffsets();
+
+    private final PendingDeliveries<Delivery> deliveries = new PendingDeliveries<>();
+
+    private final AtomicBoolean committing = new AtomicBoolean();
+
+    private volatile long lastCommitNanos = System.nanoTime();
 
     private Producer<String, String> producer;
 
@@ -62,77 +132,301 @@ public class KafkaRequestIdQueue implements BlockingRequestIdQueue, AutoCloseabl
 
     private Decoder<String> keyDecoder;
 
-    public KafkaRequestIdQueue(String topic, Properties producerProperties,
+    /**
+     * @param streams number of streams topic is consumed with, partitions are divided among
+     * streams of all instances in consumer group
+     * @param commitPolicy when offsets of acknowledged messages are committed
+     */
+    public KafkaRequestIdQueue(String topic, int streams, Properties producerProperties,
                                Properties consumerProperties,
-                               Decoder<String> keyDecoder, Decoder<String> msgDecoder) {
-        ConsumerConfig consumerConfig = new ConsumerConfig(consumerProperties);
+                               Decoder<String> keyDecoder, Decoder<String> msgDecoder,
+                               OffsetCommitPolicy commitPolicy) {
+        Preconditions.checkArgument(streams > 0, "Topic %s needs at least one stream", topic);
+        Properties consumerConfigProperties = new Properties();
+        consumerConfigProperties.putAll(consumerProperties);
+        consumerConfigProperties.putIfAbsent(CONSUMER_TIMEOUT, DEFAULT_CONSUMER_TIMEOUT_MS);
+        consumerConfigProperties.put(AUTO_COMMIT, "false");
+        consumerConfigProperties.putIfAbsent(CONSUMER_ID, UUID.randomUUID().toString());
+        ConsumerConfig consumerConfig = new ConsumerConfig(consumerConfigProperties);
+        Preconditions.checkArgument(ZOOKEEPER_OFFSETS.equals(consumerConfig.offsetsStorage()),
+                "Topic %s: only offsets stored in ZooKeeper are supported", topic);
+        groupId = consumerConfig.groupId();
+        ownerPrefix = groupId + "_" + consumerConfigProperties.getProperty(CONSUMER_ID) + "-";
+        zkClient = new ZkClient(consumerConfig.zkConnect(), consumerConfig.zkSessionTimeoutMs(),
+                consumerConfig.zkConnectionTimeoutMs(), ZKStringSerializer$.MODULE$);
         consumer = kafka.consumer.Consumer.createJavaConsumerConnector(consumerConfig);
         ProducerConfig producerConfig = new ProducerConfig(producerProperties);
         producer = new Producer<>(producerConfig);
         this.topic = topic;
         this.keyDecoder = keyDecoder;
         this.msgDecoder = msgDecoder;
-        streamIterator = getStreamIterator();
+        this.commitPolicy = commitPolicy;
+        List<KafkaStream<String, String>> kafkaStreams = getStreams(streams);
+        kafkaStreams.forEach(stream -> idleReaders.addLast(new StreamReader(stream)));
+        streamCount = kafkaStreams.size();
     }
 
     /**
      * Modified example from kafka site with some defensive checks added.
      */
-    private ConsumerIterator<String, String> getStreamIterator() {
-        Map<String, Integer> topicCountMap = ImmutableMap.of(topic, TOPIC_COUNT);
+    private List<KafkaStream<String, String>> getStreams(int count) {
+        Map<String, Integer> topicCountMap = ImmutableMap.of(topic, count);
         Map<String, List<KafkaStream<String, String>>> consumerMap =
                 consumer.createMessageStreams(topicCountMap, keyDecoder, msgDecoder);
         List<KafkaStream<String, String>> streams = consumerMap.get(topic);
         Preconditions.checkNotNull(streams, "There is no topic named : " + topic);
-        //copy in case of live list returned. Needed for index check below.
+        //copy in case of live list returned. Needed for size check below.
         ImmutableList<KafkaStream<String, String>> streamsCopy = ImmutableList.copyOf(streams);
 
-        Preconditions.checkElementIndex(FIRST_ELEMENT_INDEX, streamsCopy.size(),
+        Preconditions.checkState(!streamsCopy.isEmpty(),
                 "Failed to find any KafkaStreams related to topic : " + topic);
-        KafkaStream<String, String> stream = streamsCopy.get(FIRST_ELEMENT_INDEX);
+        streamsCopy.forEach(stream -> Preconditions.checkNotNull(stream, "Returned kafka stream is null"));
+        return streamsCopy;
+    }
 
-        Preconditions.checkNotNull(stream, "Returned kafka stream is null");
+    @Override
+    public void offer(String requestId) {
+        offer(requestId, null);
+    }
 
-        ConsumerIterator<String, String> iterator = stream.iterator();
-        Preconditions.checkNotNull(iterator, "Returned kafka iterator is null");
-        return iterator;
+    @Override
+    public void offer(String requestId, String key) {
+        producer.send(newMessage(requestId, key));
     }
 
     @Override
-    public void offer(String requestId) {
-        producer.send(new KeyedMessage<>(topic, requestId));
+    public void offerAll(Collection<String> requestIds) {
+        producer.send(requestIds.stream()
+                .map(requestId -> newMessage(requestId, null))
+                .collect(Collectors.toList()));
     }
 
+    @Override
+    public void offerAll(Map<String, String> keysByRequestId) {
+        producer.send(keysByRequestId.entrySet().stream()
+                .map(entry -> newMessage(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList()));
+    }
 
+    /**
+     * @return next message of any stream, or null if consumer was shut down
+     */
     @Override
-    public synchronized String take() throws InterruptedException {
-        if (streamIterator.hasNext()) {
-            MessageAndMetadata<String, String> next = streamIterator.next();
-            System.out.print(next);
-            return next.message();
+    public String take() throws InterruptedException {
+        commitIfDue();
+        while (true) {
+            StreamReader reader = idleReaders.takeFirst();
+            try {
+                return reader.next();
+            } catch (ConsumerTimeoutException e) {
+                // empty stream, next one is tried
+            } finally {
+                idleReaders.addLast(reader);
+            }
+            checkInterrupted();
         }
-        // TODO: check if kafka next.message() can return null, if so we need to change return type
-        // to Optional<Request>
-        return null;
     }
 
+    /**
+     * Collects messages from a borrowed stream until max is reached or the stream has nothing
+     * more within consumer timeout. Empty streams are passed over until some has messages or
+     * timeout elapses.
+     */
     @Override
-    public void processItem(QueueItemConsumer<String> consumer) throws Exception {
-        BlockingRequestIdQueue.super.processItem(consumer);
-        // TODO : implement ACK functionality when needed
+    public List<String> drainTo(int max, long timeout, TimeUnit unit) throws InterruptedException {
+        commitIfDue();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        do {
+            StreamReader reader = idleReaders.pollFirst(Math.max(0, deadline - System.nanoTime()),
+                    TimeUnit.NANOSECONDS);
+            if (reader == null) {
+                break;
+            }
+            List<String> items;
+            try {
+                items = reader.drainTo(max);
+            } finally {
+                idleReaders.addLast(reader);
+            }
+            if (!items.isEmpty()) {
+                return items;
+            }
+            checkInterrupted();
+        } while (System.nanoTime() < deadline);
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void ack(String item) {
+        Delivery delivery = deliveries.remove(item);
+        if (delivery != null) {
+            offsets.acknowledged(delivery.partition, delivery.offset);
+        }
     }
 
     /**
-     * TODO:
+     * Item is sent to the topic again, with the key of its message, and acknowledged once it is
+     * sent, so that it doesn't hold back offsets of the following ones.
+     */
+    @Override
+    public void nack(String item) {
+        if (item == null) {
+            return;
+        }
+        Delivery delivery = deliveries.remove(item);
+        offer(item, delivery != null ? delivery.key : null);
+        if (delivery != null) {
+            offsets.acknowledged(delivery.partition, delivery.offset);
+        }
+    }
+
+    /**
+     * Only one thread commits at a time, the others go on taking.
+     */
+    private void commitIfDue() {
+        if (commitPolicy.isDue(offsets.getAcknowledgedSinceCommit(), lastCommitNanos)
+                && committing.compareAndSet(false, true)) {
+            try {
+                commit();
+            } finally {
+                committing.set(false);
+            }
+        }
+    }
+
+    private void commit() {
+        lastCommitNanos = System.nanoTime();
+        List<TopicPartition> moved = new ArrayList<>();
+        offsets.toCommit().forEach((partition, offset) -> {
+            ZKGroupTopicDirs dirs = new ZKGroupTopicDirs(groupId, partition.topic());
+            try {
+                if (!isOwned(dirs, partition)) {
+                    moved.add(partition);
+                    return;
+                }
+                ZkUtils.updatePersistentPath(zkClient, dirs.consumerOffsetDir() + "/" + partition.partition(),
+                        String.valueOf(offset));
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to commit offset " + offset + " of " + partition, e);
+            }
+        });
+        if (!moved.isEmpty()) {
+            LOGGER.info("Partitions {} moved to other consumer, their offsets are not committed", moved);
+            offsets.revoked(moved);
+        }
+    }
+
+    /**
+     * Ownership can still change before offset is written, new owner then may consume some
+     * messages once more.
+     */
+    private boolean isOwned(ZKGroupTopicDirs dirs, TopicPartition partition) {
+        Option<String> owner =
+                ZkUtils.readDataMaybeNull(zkClient, dirs.consumerOwnerDir() + "/" + partition.partition())._1();
+        return owner.isDefined() && owner.get().startsWith(ownerPrefix);
+    }
+
+    public int getStreamCount() {
+        return streamCount;
+    }
+
+    /**
+     * Partitioner hashes the key, messages without key get the next round robin one.
+     */
+    private KeyedMessage<String, String> newMessage(String requestId, String key) {
+        return new KeyedMessage<>(topic, key != null ? key : String.valueOf(nextKey.getAndIncrement()), requestId);
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Commits offsets of acknowledged messages, the others are consumed again after restart.
      */
     @Override
     public void close() {
-        if (consumer != null) consumer.shutdown();
+        commit();
+        consumer.shutdown();
+        zkClient.close();
     }
 
-    public static KafkaRequestIdQueue newJsonQueue(String topic, Properties producerProperties, Properties consumerProperties) {
-        return new KafkaRequestIdQueue(topic, producerProperties,
-                consumerProperties, new StringDecoder(emptyProps), new StringDecoder(emptyProps));
+    public static KafkaRequestIdQueue newJsonQueue(String topic, int streams, Properties producerProperties,
+                                                   Properties consumerProperties, OffsetCommitPolicy commitPolicy) {
+        return new KafkaRequestIdQueue(topic, streams, producerProperties,
+                consumerProperties, new StringDecoder(emptyProps), new StringDecoder(emptyProps), commitPolicy);
     }
-}
 
+    /**
+     * Iterator of a single stream. It is used by one thread at a time, the one that borrowed it.
+     */
+    private class StreamReader {
+
+        private final ConsumerIterator<String, String> streamIterator;
+
+        StreamReader(KafkaStream<String, String> stream) {
+            streamIterator = stream.iterator();
+            Preconditions.checkNotNull(streamIterator, "Returned kafka iterator is null");
+        }
+
+        /**
+         * @return messages available within consumer timeout, empty if there are none or stream
+         * was shut down
+         */
+        List<String> drainTo(int max) {
+            List<String> items = new ArrayList<>(max);
+            try {
+                while (items.size() < max) {
+                    String item = next();
+                    if (item == null) {
+                        break;
+                    }
+                    items.add(item);
+                }
+            } catch (ConsumerTimeoutException e) {
+                // nothing more for now
+            }
+            return items;
+        }
+
+        /**
+         * @return next message, or null if stream was shut down
+         * @throws ConsumerTimeoutException if there is no message within consumer timeout
+         */
+        private String next() {
+            if (!streamIterator.hasNext()) {
+                return null;
+            }
+            MessageAndMetadata<String, String> record = streamIterator.next();
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            offsets.taken(partition, record.offset());
+            String message = record.message();
+            if (message == null) {
+                offsets.acknowledged(partition, record.offset());
+            } else {
+                deliveries.add(message, new Delivery(partition, record.offset(), record.key()));
+            }
+            return message;
+        }
+    }
+
+    /**
+     * Message taken from queue, waiting for acknowledgement.
+     */
+    private static class Delivery {
+
+        private final TopicPartition partition;
+
+        private final long offset;
+
+        private final String key;
+
+        Delivery(TopicPartition partition, long offset, String key) {
+            this.partition = partition;
+            this.offset = offset;
+            this.key = key;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
 import java.util.Map;
 
 @Component
@@ -27,4 +28,30 @@ import java.util.Map;
 public class KafkaTopicsProperties {
     @Getter @Setter
     private Map<String, String> topics;
+
+    /**
+     * Settings by the same names as topics.
+     */
+    @Getter @Setter
+    private Map<String, TopicSettings> settings = new HashMap<>();
+
+    public TopicSettings getSettings(String name) {
+        return settings.computeIfAbsent(name, x -> new TopicSettings());
+    }
+
+    public static class TopicSettings {
+        /**
+         * Partitions of topic created by embedded Kafka, topics of distributed cluster are
+         * created by its administrators.
+         */
+        @Getter @Setter
+        private int partitions = 1;
+
+        /**
+         * Streams one instance consumes topic with, threads taking from queue take turns
+         * reading them.
+         */
+        @Getter @Setter
+        private int streams = 1;
+    }
 }
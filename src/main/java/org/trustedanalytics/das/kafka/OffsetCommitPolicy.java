@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.kafka;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells when offsets of acknowledged messages are committed. They are committed together, once
+ * enough messages were acknowledged or enough time passed since the last commit.
+ */
+public class OffsetCommitPolicy {
+
+    public static final OffsetCommitPolicy DEFAULT = new OffsetCommitPolicy(100, 1000);
+
+    private final int batchSize;
+
+    private final long intervalMillis;
+
+    /**
+     * @param batchSize acknowledged messages committed at once
+     * @param intervalMillis time after which acknowledged messages are committed even when there
+     * are less of them
+     */
+    public OffsetCommitPolicy(int batchSize, long intervalMillis) {
+        Preconditions.checkArgument(batchSize > 0, "Commit batch size must be positive");
+        Preconditions.checkArgument(intervalMillis > 0, "Commit interval must be positive");
+        this.batchSize = batchSize;
+        this.intervalMillis = intervalMillis;
+    }
+
+    boolean isDue(int acknowledged, long lastCommitNanos) {
+        return acknowledged >= batchSize
+                || acknowledged > 0 && System.nanoTime() - lastCommitNanos >= TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+}
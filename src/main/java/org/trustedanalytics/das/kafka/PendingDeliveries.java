@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.kafka;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records taken and not acknowledged yet, by message. The same message may be taken again before
+ * it is acknowledged, then acknowledgements are matched in order.
+ */
+class PendingDeliveries<T> {
+
+    private final Map<String, Deque<T>> deliveries = new ConcurrentHashMap<>();
+
+    void add(String message, T delivery) {
+        deliveries.compute(message, (key, pending) -> {
+            Deque<T> updated = pending == null ? new ArrayDeque<>() : pending;
+            updated.add(delivery);
+            return updated;
+        });
+    }
+
+    /**
+     * @return the oldest delivery of message, null if there is none
+     */
+    T remove(String message) {
+        if (message == null) {
+            return null;
+        }
+        Object[] removed = new Object[1];
+        deliveries.computeIfPresent(message, (key, pending) -> {
+            removed[0] = pending.poll();
+            return pending.isEmpty() ? null : pending;
+        });
+        @SuppressWarnings("unchecked")
+        T delivery = (T) removed[0];
+        return delivery;
+    }
+}
@@ -61,6 +61,8 @@ public class Request {
 
         private boolean publicRequest;
 
+        private int attempts;
+
         public RequestBuilder(int userId, String source) {
             this.userId = userId;
             this.source = source;
@@ -85,6 +87,7 @@ public class Request {
             token = original.getToken();
             userId = original.getUserId();
             timestamps = original.getTimestamps();
+            attempts = original.getAttempts();
         }
 
         public RequestBuilder(RequestDTO dto) {
@@ -145,9 +148,14 @@ public class Request {
             return this;
         }
 
+        public RequestBuilder withAttempts(int attempts) {
+            this.attempts = attempts;
+            return this;
+        }
+
         public Request build() {
             return new Request(id, userId, source, state, idInObjectStore, category,
-                    title, orgId, token, publicRequest, timestamps);
+                    title, orgId, token, publicRequest, timestamps, attempts);
         }
     }
 
@@ -187,13 +195,20 @@ public class Request {
     @Getter
     private final boolean publicRequest;
 
+    /**
+     * Failed attempts to process request in its current state.
+     */
+    @Getter
+    private final int attempts;
+
     @JsonCreator
     private Request(@JsonProperty("id") String id, @JsonProperty("userId") int userId,
                     @JsonProperty("source") String source, @JsonProperty("state") State state,
                     @JsonProperty("idInObjectStore") String idInObjectStore, @JsonProperty("category") String category,
                     @JsonProperty("title") String title, @JsonProperty("orgUUID") String orgUUID,
                     @JsonProperty("token") String token, @JsonProperty("publicRequest") boolean publicRequest,
-                    @JsonProperty("timestamps") Map<State, Long> timestamps) {
+                    @JsonProperty("timestamps") Map<State, Long> timestamps,
+                    @JsonProperty("attempts") int attempts) {
         this.id = id;
         this.userId = userId;
         this.source = source;
@@ -205,6 +220,7 @@ public class Request {
         this.token = token;
         this.publicRequest = publicRequest;
         this.timestamps = timestamps;
+        this.attempts = attempts;
     }
 
     public RequestDTO toDto() {
@@ -219,6 +235,7 @@ public class Request {
         dto.setTimestamps(timestamps);
         dto.setTitle(title);
         dto.setUserId(userId);
+        dto.setAttempts(attempts);
         return dto;
     }
 
@@ -234,10 +251,20 @@ public class Request {
                 .build();
     }
 
+    /**
+     * Attempts are counted anew in the new state, failed request keeps them.
+     */
     public Request changeState(State newState) {
         Request withNewTimestamp = setCurrentTimestamp(newState);
         return new RequestBuilder(withNewTimestamp)
                 .withState(newState)
+                .withAttempts(newState == State.ERROR ? attempts : 0)
+                .build();
+    }
+
+    public Request nextAttempt() {
+        return new RequestBuilder(this)
+                .withAttempts(attempts + 1)
                 .build();
     }
 
@@ -265,6 +292,8 @@ public class Request {
         builder.append(category);
         builder.append(", timestamps=");
         builder.append(timestamps);
+        builder.append(", attempts=");
+        builder.append(attempts);
         builder.append("]");
         return builder.toString();
     }
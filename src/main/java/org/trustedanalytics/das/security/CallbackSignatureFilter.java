@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+import org.trustedanalytics.das.subservices.callbacks.CallbackSigner;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Authenticates callbacks of subservices carrying signature issued by {@link CallbackSigner}.
+ * Such requests skip permission acquiring, callbacks without signature are authenticated
+ * with a token as any other request.
+ */
+public class CallbackSignatureFilter extends OncePerRequestFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CallbackSignatureFilter.class);
+
+    public static final String SIGNED_CALLBACK = "signedCallback";
+
+    private static final String CALLBACK_PATH = "/rest/das/callbacks/{app}/{requestId}";
+
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private static final UrlPathHelper PATH_HELPER = new UrlPathHelper();
+
+    private final CallbackSigner callbackSigner;
+
+    public CallbackSignatureFilter(CallbackSigner callbackSigner) {
+        this.callbackSigner = callbackSigner;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !callbackSigner.isEnabled()
+            || request.getParameter(CallbackSigner.SIGNATURE_PARAM) == null
+            || !PATH_MATCHER.match(CALLBACK_PATH, PATH_HELPER.getPathWithinApplication(request));
+    }
+
+    @Override protected void doFilterInternal(HttpServletRequest request,
+        HttpServletResponse httpServletResponse, FilterChain filterChain)
+        throws ServletException, IOException {
+        Map<String, String> variables = PATH_MATCHER.extractUriTemplateVariables(
+            CALLBACK_PATH, PATH_HELPER.getPathWithinApplication(request));
+        String app = variables.get("app");
+        String requestId = variables.get("requestId");
+
+        if (!callbackSigner.verify(app, requestId, request.getParameter(CallbackSigner.SIGNATURE_PARAM))) {
+            LOGGER.warn("Invalid signature of {} callback for {}", app, requestId);
+            httpServletResponse.sendError(401, "Invalid callback signature.");
+            return;
+        }
+
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+            app, requestId, AuthorityUtils.createAuthorityList("ROLE_CALLBACK")));
+        request.setAttribute(SIGNED_CALLBACK, Boolean.TRUE);
+        filterChain.doFilter(request, httpServletResponse);
+    }
+}
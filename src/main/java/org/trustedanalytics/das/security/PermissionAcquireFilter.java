@@ -49,6 +49,11 @@ public class PermissionAcquireFilter extends OncePerRequestFilter {
         this.tokenRetriever = tokenRetriever;
     }
 
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(CallbackSignatureFilter.SIGNED_CALLBACK));
+    }
+
     @Override protected void doFilterInternal(HttpServletRequest request,
         HttpServletResponse httpServletResponse, FilterChain filterChain)
         throws ServletException, IOException {
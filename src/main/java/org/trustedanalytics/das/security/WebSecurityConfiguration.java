@@ -17,6 +17,7 @@ package org.trustedanalytics.das.security;
 
 import org.trustedanalytics.cloud.auth.AuthTokenRetriever;
 import org.trustedanalytics.das.security.authorization.Authorization;
+import org.trustedanalytics.das.subservices.callbacks.CallbackSigner;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.security.oauth2.resource.ResourceServerProperties;
 import org.springframework.context.annotation.Bean;
@@ -27,6 +28,7 @@ import org.springframework.security.oauth2.config.annotation.web.configuration.R
 import org.springframework.security.oauth2.config.annotation.web.configuration.ResourceServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configurers.ResourceServerSecurityConfigurer;
 import org.springframework.security.web.access.intercept.FilterSecurityInterceptor;
+import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
 
 @Configuration class WebSecurityConfiguration {
 
@@ -48,6 +50,9 @@ import org.springframework.security.web.access.intercept.FilterSecurityIntercept
         @Autowired
         private AuthTokenRetriever tokenRetriever;
 
+        @Autowired
+        private CallbackSigner callbackSigner;
+
         @Autowired
         public ResourceSecurityConfigurer(ResourceServerProperties resource) {
             this.resource = resource;
@@ -68,6 +73,7 @@ import org.springframework.security.web.access.intercept.FilterSecurityIntercept
                 .authorizeRequests()
                     .anyRequest().authenticated()
                     .and()
+                .addFilterAfter(new CallbackSignatureFilter(callbackSigner), AbstractPreAuthenticatedProcessingFilter.class)
                 .addFilterBefore(new PermissionAcquireFilter(authorization, tokenRetriever), FilterSecurityInterceptor.class);
             // @formatter:on
         }
@@ -15,10 +15,16 @@
  */
 package org.trustedanalytics.das.security.authorization;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.trustedanalytics.cloud.auth.AuthTokenRetriever;
+import org.trustedanalytics.das.helper.CacheMetrics;
 
 @Configuration
 @Profile({"cloud", "local", "kube"})
@@ -27,8 +33,39 @@ public class AuthorizationConfig {
     @Value("${services.user-management}")
     private String userManagementBaseUrl;
 
+    /**
+     * "platform" reads permissions from user-management, "jwt" reads organizations from token
+     * claims first.
+     */
+    @Value("${authorization.mode:platform}")
+    private String mode;
+
+    @Value("${authorization.jwt.orgsClaim:org_ids}")
+    private String orgsClaim;
+
+    @Bean
+    @Primary
+    public Authorization authorization(CachingAuthorization platformAuthorization,
+                                       AuthTokenRetriever tokenRetriever, ObjectMapper objectMapper) {
+        switch (mode) {
+            case "platform":
+                return platformAuthorization;
+            case "jwt":
+                return new JwtClaimsAuthorization(platformAuthorization, tokenRetriever, orgsClaim, objectMapper);
+            default:
+                throw new IllegalArgumentException("Unknown authorization mode: " + mode);
+        }
+    }
+
+    @Bean
+    public CachingAuthorization platformAuthorization(AuthorizationCacheProperties cacheProperties,
+                                                      ClientHttpRequestFactory clientHttpRequestFactory) {
+        return new CachingAuthorization(new PlatformAuthorization(userManagementBaseUrl, clientHttpRequestFactory),
+            cacheProperties.getTtlSeconds(), cacheProperties.getMaxSize());
+    }
+
     @Bean
-    public Authorization authorization() {
-        return new PlatformAuthorization(userManagementBaseUrl);
+    public PublicMetrics authorizationCacheMetrics(CachingAuthorization platformAuthorization) {
+        return new CacheMetrics("authorization.cache", platformAuthorization.getCache());
     }
 }
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.security.authorization;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trustedanalytics.das.security.errors.OauthTokenMissingException;
+import org.trustedanalytics.usermanagement.security.model.OrgPermission;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Keeps permissions read from user-management for a short time, keyed by token. Concurrent
+ * requests with the same token wait for a single lookup. Failed lookups are not cached.
+ */
+public class CachingAuthorization implements Authorization {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingAuthorization.class);
+
+    private final LoadingCache<String, Collection<OrgPermission>> permissions;
+
+    public CachingAuthorization(PlatformAuthorization delegate, long ttlSeconds, long maxSize) {
+        this.permissions = CacheBuilder.newBuilder()
+            .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+            .maximumSize(maxSize)
+            .recordStats()
+            .build(new CacheLoader<String, Collection<OrgPermission>>() {
+                @Override
+                public Collection<OrgPermission> load(String token) {
+                    return delegate.getAccessibleOrgs(token);
+                }
+            });
+    }
+
+    @Override public Collection<OrgPermission> getAccessibleOrgs(HttpServletRequest request)
+        throws IOException, ServletException {
+
+        String token;
+        try {
+            token = PlatformAuthorization.getToken(request);
+        } catch (OauthTokenMissingException e) {
+            LOGGER.debug(e.getMessage(), e);
+            return Collections.emptyList();
+        }
+
+        try {
+            return permissions.getUnchecked(token);
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    Cache<String, Collection<OrgPermission>> getCache() {
+        return permissions;
+    }
+}
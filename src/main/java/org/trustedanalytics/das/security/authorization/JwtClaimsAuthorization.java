@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.security.authorization;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.jwt.JwtHelper;
+import org.trustedanalytics.cloud.auth.AuthTokenRetriever;
+import org.trustedanalytics.usermanagement.orgs.model.Org;
+import org.trustedanalytics.usermanagement.security.model.OrgPermission;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads organizations from a claim of the token the request was authenticated with. Signature
+ * of the token was already verified by the resource server filter, so its claims are trusted.
+ * When the claim is missing permissions are taken from the fallback authorization.
+ */
+public class JwtClaimsAuthorization implements Authorization {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwtClaimsAuthorization.class);
+
+    private final Authorization fallback;
+
+    private final AuthTokenRetriever tokenRetriever;
+
+    private final String orgsClaim;
+
+    private final ObjectMapper objectMapper;
+
+    public JwtClaimsAuthorization(Authorization fallback, AuthTokenRetriever tokenRetriever, String orgsClaim,
+                                  ObjectMapper objectMapper) {
+        this.fallback = fallback;
+        this.tokenRetriever = tokenRetriever;
+        this.orgsClaim = orgsClaim;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override public Collection<OrgPermission> getAccessibleOrgs(HttpServletRequest request)
+        throws IOException, ServletException {
+
+        Optional<Collection<String>> orgIds =
+            getOrgIds(SecurityContextHolder.getContext().getAuthentication());
+        if (!orgIds.isPresent()) {
+            LOGGER.debug("No '{}' claim in token, asking user-management", orgsClaim);
+            return fallback.getAccessibleOrgs(request);
+        }
+        return orgIds.get().stream()
+            .map(orgId -> new OrgPermission(new Org(orgId, null), false, false))
+            .collect(Collectors.toList());
+    }
+
+    private Optional<Collection<String>> getOrgIds(Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()
+            || authentication instanceof AnonymousAuthenticationToken) {
+            return Optional.empty();
+        }
+        String token = tokenRetriever.getAuthToken(authentication);
+        if (token == null) {
+            return Optional.empty();
+        }
+
+        Map<String, Object> claims;
+        try {
+            claims = objectMapper.readValue(JwtHelper.decode(token).getClaims(),
+                new TypeReference<Map<String, Object>>() {});
+        } catch (IllegalArgumentException | IOException e) {
+            LOGGER.debug("Cannot read token claims", e);
+            return Optional.empty();
+        }
+
+        Object orgs = claims.get(orgsClaim);
+        if (orgs instanceof Collection) {
+            return Optional.of(((Collection<?>) orgs).stream()
+                .map(String::valueOf)
+                .collect(Collectors.toList()));
+        }
+        if (orgs instanceof String) {
+            return Optional.of(Arrays.asList(((String) orgs).split("[,\\s]+")));
+        }
+        return Optional.empty();
+    }
+}
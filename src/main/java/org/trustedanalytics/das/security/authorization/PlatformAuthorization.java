@@ -26,6 +26,8 @@ import javax.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 import org.trustedanalytics.das.security.errors.OauthTokenMissingException;
 import org.trustedanalytics.usermanagement.security.model.OrgPermission;
@@ -36,8 +38,11 @@ public class PlatformAuthorization implements Authorization {
 
     private final String userManagementBaseUrl;
 
-    public PlatformAuthorization(String userManagementBaseUrl) {
+    private final RestOperations restTemplate;
+
+    public PlatformAuthorization(String userManagementBaseUrl, ClientHttpRequestFactory requestFactory) {
         this.userManagementBaseUrl = userManagementBaseUrl;
+        this.restTemplate = new RestTemplate(requestFactory);
     }
 
     @Override public Collection<OrgPermission> getAccessibleOrgs(HttpServletRequest request)
@@ -54,13 +59,17 @@ public class PlatformAuthorization implements Authorization {
             };
         }
 
+        return getAccessibleOrgs(token);
+    }
+
+    public Collection<OrgPermission> getAccessibleOrgs(String token) {
         String url = userManagementBaseUrl + "/rest/orgs/permissions";
         ResponseEntity<OrgPermission[]> access = RestOperationsHelpers.getForEntityWithToken(
-            new RestTemplate(), token, url, OrgPermission[].class);
+            restTemplate, token, url, OrgPermission[].class);
         return Arrays.asList(access.getBody());
     }
 
-    private String getToken(HttpServletRequest request) throws OauthTokenMissingException {
+    static String getToken(HttpServletRequest request) throws OauthTokenMissingException {
         String authHeader = request.getHeader("Authorization");
         if (authHeader == null) {
             throw new OauthTokenMissingException("Cannot find 'Authorization' header.");
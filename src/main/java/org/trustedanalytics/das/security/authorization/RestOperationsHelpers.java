@@ -15,12 +15,10 @@
  */
 package org.trustedanalytics.das.security.authorization;
 
-import static java.util.Collections.singletonList;
-
-import org.trustedanalytics.cloud.auth.HeaderAddingHttpInterceptor;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.ClientHttpRequestInterceptor;
-import org.springframework.http.client.support.InterceptingHttpAccessor;
 import org.springframework.web.client.RestOperations;
 
 import java.util.Map;
@@ -32,19 +30,17 @@ public class RestOperationsHelpers {
 
     public static <T> ResponseEntity<T> getForEntityWithToken(RestOperations restTemplate,
         String token, String url, Class<T> type) {
-        addAuthHeaderToTemplate(restTemplate, token);
-        return restTemplate.getForEntity(url, type);
+        return restTemplate.exchange(url, HttpMethod.GET, getAuthEntity(token), type);
     }
 
     public static <T> ResponseEntity<T> getForEntityWithToken(RestOperations restTemplate,
         String token, String url, Class<T> type, Map<String, Object> pathVars) {
-        addAuthHeaderToTemplate(restTemplate, token);
-        return restTemplate.getForEntity(url, type, pathVars);
+        return restTemplate.exchange(url, HttpMethod.GET, getAuthEntity(token), type, pathVars);
     }
 
-    private static void addAuthHeaderToTemplate(RestOperations restTemplate, String token) {
-        ClientHttpRequestInterceptor interceptor =
-            new HeaderAddingHttpInterceptor("Authorization", "bearer " + token);
-        ((InterceptingHttpAccessor) restTemplate).setInterceptors(singletonList(interceptor));
+    private static HttpEntity<Void> getAuthEntity(String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, "bearer " + token);
+        return new HttpEntity<>(headers);
     }
 }
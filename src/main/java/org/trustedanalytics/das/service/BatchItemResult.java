@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.service;
+
+import lombok.Data;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Outcome of single request submitted in a batch. Status is the one the request would get
+ * when submitted alone.
+ */
+@Data
+public class BatchItemResult {
+    private int status;
+
+    private String message;
+
+    private RequestDTO request;
+
+    public static BatchItemResult accepted(RequestDTO request) {
+        return newInstance(HttpStatus.ACCEPTED.value(), null, request);
+    }
+
+    public static BatchItemResult rejected(HttpStatus status, String message, RequestDTO request) {
+        return newInstance(status.value(), message, request);
+    }
+
+    private static BatchItemResult newInstance(int status, String message, RequestDTO request) {
+        BatchItemResult result = new BatchItemResult();
+        result.status = status;
+        result.message = message;
+        result.request = request;
+        return result;
+    }
+}
@@ -18,8 +18,14 @@ package org.trustedanalytics.das.service;
 import org.trustedanalytics.das.dataflow.FlowManager;
 import org.trustedanalytics.das.parser.Request;
 
+import java.util.List;
+
 @FunctionalInterface
 public interface FlowHandler {
 
     void process(Request request, FlowManager flowManager);
+
+    default void processAll(List<Request> requests, FlowManager flowManager) {
+        requests.forEach(request -> process(request, flowManager));
+    }
 }
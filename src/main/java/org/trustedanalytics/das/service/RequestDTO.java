@@ -42,4 +42,6 @@ public class RequestDTO {
     private String orgUUID;
 
     private boolean publicRequest;
+
+    private int attempts;
 }
@@ -19,6 +19,9 @@ import org.trustedanalytics.das.dataflow.FlowManager;
 import org.trustedanalytics.das.parser.Request;
 import org.trustedanalytics.das.parser.State;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 public class RequestFlowForExistingFile implements FlowHandler {
 
     @Override
@@ -29,4 +32,11 @@ public class RequestFlowForExistingFile implements FlowHandler {
         // from now on this should be treated like any other download
         flowManager.requestDownloaded(validatedRequest);
    }
+
+    @Override
+    public void processAll(List<Request> requests, FlowManager flowManager) {
+        flowManager.requestsDownloaded(requests.stream()
+                .map(request -> request.changeState(State.NEW).changeState(State.VALIDATED))
+                .collect(Collectors.toList()));
+    }
 }
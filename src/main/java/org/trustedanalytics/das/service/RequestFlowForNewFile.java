@@ -18,10 +18,17 @@ package org.trustedanalytics.das.service;
 import org.trustedanalytics.das.dataflow.FlowManager;
 import org.trustedanalytics.das.parser.Request;
 
+import java.util.List;
+
 public class RequestFlowForNewFile implements FlowHandler {
 
     @Override
     public void process(Request request, FlowManager flowManager){
         flowManager.newRequest(request);
     }
+
+    @Override
+    public void processAll(List<Request> requests, FlowManager flowManager) {
+        flowManager.newRequests(requests);
+    }
 }
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.service;
+
+import org.trustedanalytics.das.security.permissions.PermissionVerifier;
+
+import java.nio.file.AccessDeniedException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Organizations given in orgs parameter of REST calls.
+ */
+final class RequestedOrgs {
+
+    private RequestedOrgs() {
+    }
+
+    /**
+     * @param orgs comma separated organization ids, null for all accessible to the caller
+     * @throws AccessDeniedException if the caller can't access any of given organizations
+     */
+    static Collection<String> resolve(PermissionVerifier permissionVerifier, String orgs,
+                                      HttpServletRequest context) throws AccessDeniedException {
+        Collection<String> hasAccess = permissionVerifier.getAccessibleOrgsIDs(context);
+        if (orgs == null) {
+            return hasAccess;
+        }
+        Collection<String> uuids = Arrays.asList(orgs.split(","));
+        for (String u : uuids) {
+            permissionVerifier.throwForbiddenWhenIdNotListed(hasAccess, u);
+        }
+        return uuids;
+    }
+}
@@ -15,13 +15,15 @@
  */
 package org.trustedanalytics.das.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -33,19 +35,29 @@ import org.trustedanalytics.cloud.auth.AuthTokenRetriever;
 import org.trustedanalytics.das.dataflow.FlowManager;
 import org.trustedanalytics.das.helper.RequestIdGenerator;
 import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.parser.State;
 import org.trustedanalytics.das.security.permissions.PermissionVerifier;
+import org.trustedanalytics.das.store.QueueFullException;
+import org.trustedanalytics.das.store.RequestPage;
+import org.trustedanalytics.das.store.RequestQuery;
 import org.trustedanalytics.das.store.RequestStore;
 
 import java.io.IOException;
 import java.nio.file.AccessDeniedException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -57,7 +69,8 @@ import io.swagger.annotations.ApiResponses;
 import static org.springframework.http.HttpStatus.ACCEPTED;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.FORBIDDEN;
-import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
 import static org.springframework.web.bind.annotation.RequestMethod.DELETE;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
@@ -68,12 +81,21 @@ public class RestDataAcquisitionService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RestDataAcquisitionService.class);
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final String SORT_ASCENDING = "asc";
+
+    private static final String SORT_DESCENDING = "desc";
+
+    private static final String NDJSON = "application/x-ndjson";
+
     private final FlowManager flowManager;
     private final RequestStore requestStore;
     private final RequestIdGenerator requestIdGenerator;
     private final AuthTokenRetriever tokenRetriever;
     private final PermissionVerifier permissionVerifier;
     private final Function<String, FlowHandler> flowDispatcher;
+    private final ObjectMapper objectMapper;
 
     @Autowired
     public RestDataAcquisitionService(
@@ -82,13 +104,15 @@ public class RestDataAcquisitionService {
             RequestIdGenerator requestIdGenerator,
             AuthTokenRetriever tokenRetriever,
             PermissionVerifier permissionVerifier,
-            Function<String, FlowHandler> flowDispatcher) {
+            Function<String, FlowHandler> flowDispatcher,
+            ObjectMapper objectMapper) {
         this.flowManager = flowManager;
         this.requestStore = requestStore;
         this.requestIdGenerator = requestIdGenerator;
         this.tokenRetriever = tokenRetriever;
         this.permissionVerifier = permissionVerifier;
         this.flowDispatcher = flowDispatcher;
+        this.objectMapper = objectMapper;
     }
 
     @ApiOperation(
@@ -99,6 +123,7 @@ public class RestDataAcquisitionService {
             @ApiResponse(code = 200, message = "OK", response = RequestDTO.class),
             @ApiResponse(code = 401, message = "Unauthorized"),
             @ApiResponse(code = 403, message = "Can't access this organization."),
+            @ApiResponse(code = 429, message = "Too many requests are being processed, try again later."),
             @ApiResponse(code = 500, message = "Internal server error, see logs for details.")
     })
     @RequestMapping(method = POST)
@@ -128,6 +153,78 @@ public class RestDataAcquisitionService {
         return request.toDto();
     }
 
+    @ApiOperation(
+            value = "Add many acquisition requests for file transfer at once",
+            notes = "Privilege level: Consumer of this endpoint must be a member of organizations based on valid access token. "
+                    + "Result of every request is returned in the order of submission, requests of organizations "
+                    + "the consumer is not member of are rejected."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 202, message = "Accepted", response = BatchItemResult.class, responseContainer = "List"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 500, message = "Internal server error, see logs for details.")
+    })
+    @RequestMapping(value = "/batch", method = POST)
+    @ResponseBody
+    @ResponseStatus(ACCEPTED)
+    public List<BatchItemResult> addRequests(@RequestBody List<RequestDTO> requestDtos, HttpServletRequest context) {
+        LOGGER.debug("addRequests({} requests)", requestDtos.size());
+        Set<String> forbiddenOrgs = getForbiddenOrgs(requestDtos, context);
+
+        final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        final String token = tokenRetriever.getAuthToken(authentication);
+
+        BatchItemResult[] results = new BatchItemResult[requestDtos.size()];
+        Map<String, FlowHandler> handlers = new HashMap<>();
+        Map<FlowHandler, List<Request>> toProcess = new LinkedHashMap<>();
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < requestDtos.size(); i++) {
+            RequestDTO requestDto = requestDtos.get(i);
+            if (forbiddenOrgs.contains(requestDto.getOrgUUID())) {
+                results[i] = BatchItemResult.rejected(FORBIDDEN, "Can't access this organization.", requestDto);
+                continue;
+            }
+            if (StringUtils.isBlank(requestDto.getSource())) {
+                results[i] = BatchItemResult.rejected(BAD_REQUEST, "Missing field value: source", requestDto);
+                continue;
+            }
+            try {
+                String protocol = requestDto.getSource().split(":")[0];
+                FlowHandler handler = handlers.computeIfAbsent(protocol, flowDispatcher);
+                Request request =
+                        new Request.RequestBuilder(requestDto)
+                                .withToken(token)
+                                .withId(requestIdGenerator.getId(requestDto.getSource()))
+                                .build();
+                toProcess.computeIfAbsent(handler, x -> new ArrayList<>()).add(request);
+                indexes.put(request.getId(), i);
+                results[i] = BatchItemResult.accepted(request.toDto());
+            } catch (BadRequestException e) {
+                results[i] = BatchItemResult.rejected(BAD_REQUEST, e.getMessage(), requestDto);
+            }
+        }
+
+        toProcess.forEach((handler, requests) -> {
+            try {
+                handler.processAll(requests, flowManager);
+            } catch (QueueFullException e) {
+                e.getRejected().forEach(id -> {
+                    int index = indexes.get(id);
+                    results[index] = BatchItemResult.rejected(TOO_MANY_REQUESTS, e.getMessage(), requestDtos.get(index));
+                });
+            } catch (RuntimeException e) {
+                // other groups may be already queued, so failure is reported only for this one
+                LOGGER.error("Processing of {} requests failed", requests.size(), e);
+                requests.forEach(request -> {
+                    int index = indexes.get(request.getId());
+                    results[index] = BatchItemResult.rejected(INTERNAL_SERVER_ERROR,
+                            "Internal server error, see logs for details.", requestDtos.get(index));
+                });
+            }
+        });
+        return Arrays.asList(results);
+    }
+
     @ApiOperation(
             value = "Get specific acquisition request of file transfer with given id",
             notes = "Privilege level: Consumer of this endpoint must be a member of organization based on valid access token"
@@ -151,7 +248,9 @@ public class RestDataAcquisitionService {
 
     @ApiOperation(
             value = "Get acquisition requests for all file transfers",
-            notes = "Privilege level: Consumer of this endpoint must be a member of organization based on valid access token"
+            notes = "Privilege level: Consumer of this endpoint must be a member of organization based on valid access token. "
+                    + "When limit is given, results are sorted by creation time (sort=asc|desc, newest first by default) "
+                    + "and cursor of the next page is returned in " + NEXT_CURSOR_HEADER + " header."
     )
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "OK", response = List.class, responseContainer = "List"),
@@ -161,28 +260,69 @@ public class RestDataAcquisitionService {
     })
     @RequestMapping(method = GET)
     @ResponseBody
-    public List<RequestDTO> getAllRequests(@RequestParam(required = false) String orgs, HttpServletRequest context)
+    public List<RequestDTO> getAllRequests(@RequestParam(required = false) String orgs,
+                                           @RequestParam(required = false) Integer limit,
+                                           @RequestParam(required = false) String cursor,
+                                           @RequestParam(required = false) State state,
+                                           @RequestParam(required = false) String category,
+                                           @RequestParam(required = false) Long since,
+                                           @RequestParam(required = false) String sort,
+                                           HttpServletRequest context, HttpServletResponse response)
             throws AccessDeniedException {
         LOGGER.debug("getAllRequest()");
 
-        Collection<String> hasAccess = permissionVerifier.getAccessibleOrgsIDs(context);
+        Collection<String> uuids = RequestedOrgs.resolve(permissionVerifier, orgs, context);
 
-        Collection<String> uuids;
-        if (orgs != null) {
-            uuids = Arrays.asList(orgs.split(","));
-            for (String u : uuids) {
-                permissionVerifier.throwForbiddenWhenIdNotListed(hasAccess, u);
-            }
-        } else {
-            uuids = hasAccess;
+        if (limit == null && cursor == null && state == null && category == null && since == null && sort == null) {
+            Map<String, Request> result = requestStore.getAll(uuids);
+            return result.values().stream().map(r -> r.toDto()).collect(Collectors.toList());
         }
 
-        Map<String, Request> result = new HashMap<>();
-        for (String uuid : uuids) {
-            result.putAll(requestStore.getAll(uuid));
-        }
+        RequestPage page = requestStore.find(
+                buildQuery(uuids, limit, cursor, state, category, since, sort));
+        page.getNextCursor().ifPresent(next -> response.setHeader(NEXT_CURSOR_HEADER, next));
+        return page.getItems().stream().map(r -> r.toDto()).collect(Collectors.toList());
+    }
+
+    @ApiOperation(
+            value = "Stream acquisition requests for all file transfers",
+            notes = "Privilege level: Consumer of this endpoint must be a member of organization based on valid access token. "
+                    + "Requests are written as newline delimited JSON while they are read from the store, in no particular order."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = RequestDTO.class, responseContainer = "List"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 403, message = "Can't access this organization."),
+            @ApiResponse(code = 500, message = "Internal server error, see logs for details.")
+    })
+    @RequestMapping(value = "/stream", method = GET, produces = NDJSON)
+    public void streamAllRequests(@RequestParam(required = false) String orgs,
+                                  @RequestParam(required = false) State state,
+                                  @RequestParam(required = false) String category,
+                                  @RequestParam(required = false) Long since,
+                                  HttpServletRequest context, HttpServletResponse response)
+            throws AccessDeniedException, IOException {
+        LOGGER.debug("streamAllRequests()");
+
+        Collection<String> uuids = RequestedOrgs.resolve(permissionVerifier, orgs, context);
+        RequestQuery query = buildQuery(uuids, null, null, state, category, since, null);
 
-        return result.values().stream().map(r -> r.toDto()).collect(Collectors.toList());
+        response.setContentType(NDJSON);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.setRootValueSeparator(null);
+            for (String orgId : uuids) {
+                try (Stream<Request> requests = requestStore.stream(orgId)) {
+                    Iterator<Request> matching = requests
+                            .filter(query::matches)
+                            .filter(request -> query.isInRange(RequestQuery.Position.of(request)))
+                            .iterator();
+                    while (matching.hasNext()) {
+                        generator.writeObject(matching.next().toDto());
+                        generator.writeRaw('\n');
+                    }
+                }
+            }
+        }
     }
 
     @ApiOperation(
@@ -205,22 +345,41 @@ public class RestDataAcquisitionService {
         return DefaultResponse.newInstance("OK");
     }
 
-    @ExceptionHandler(BadRequestException.class)
-    public void badRequestHandler(BadRequestException exception, HttpServletResponse response ) throws IOException {
-        LOGGER.warn("Invalid request: " + exception.getMessage());
-        response.sendError(BAD_REQUEST.value(), exception.getMessage());
-    }
-
-    @ExceptionHandler(NoSuchElementException.class)
-    @ResponseStatus(NOT_FOUND)
-    public void noSuchElementExceptionHandler(NoSuchElementException exception) {
-        LOGGER.warn("No such element: {}", exception.getMessage());
+    private Set<String> getForbiddenOrgs(List<RequestDTO> requestDtos, HttpServletRequest context) {
+        Collection<String> hasAccess = permissionVerifier.getAccessibleOrgsIDs(context);
+        Set<String> orgs = requestDtos.stream().map(RequestDTO::getOrgUUID).collect(Collectors.toSet());
+        Set<String> forbidden = new HashSet<>();
+        for (String org : orgs) {
+            try {
+                permissionVerifier.throwForbiddenWhenIdNotListed(hasAccess, org);
+            } catch (AccessDeniedException e) {
+                LOGGER.warn("Access forbidden: {}", e.getMessage());
+                forbidden.add(org);
+            }
+        }
+        return forbidden;
     }
 
-    @ExceptionHandler(AccessDeniedException.class)
-    public void accessForbidden(AccessDeniedException exception, HttpServletResponse response) throws IOException {
-        LOGGER.warn("Access forbidden: {}", exception.getMessage());
-        response.sendError(FORBIDDEN.value(), "You do not have access to requested organization.");
+    private RequestQuery buildQuery(Collection<String> uuids, Integer limit, String cursor, State state,
+                                    String category, Long since, String sort) {
+        if (limit != null && limit < 0) {
+            throw new BadRequestException("Limit cannot be negative");
+        }
+        if (sort != null && !ImmutableSet.of(SORT_ASCENDING, SORT_DESCENDING).contains(sort)) {
+            throw new BadRequestException("Unknown sort order: " + sort);
+        }
+        try {
+            return new RequestQuery.RequestQueryBuilder(uuids)
+                    .withLimit(limit == null ? 0 : limit)
+                    .withCursor(cursor)
+                    .withState(state)
+                    .withCategory(category)
+                    .withSince(since)
+                    .withAscending(SORT_ASCENDING.equals(sort))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
     }
 
     public static final class DefaultResponse {
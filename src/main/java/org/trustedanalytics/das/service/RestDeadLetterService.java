@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.trustedanalytics.das.security.permissions.PermissionVerifier;
+import org.trustedanalytics.das.store.DeadLetter;
+import org.trustedanalytics.das.subservices.DeadLetterReplayer;
+
+import java.nio.file.AccessDeniedException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.POST;
+
+@RestController
+@RequestMapping(value = "rest/das/deadletters")
+public class RestDeadLetterService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RestDeadLetterService.class);
+
+    private static final int DEFAULT_REPLAY_LIMIT = 100;
+
+    /**
+     * Replay runs while the call waits, throttled by pipeline.replayRate.
+     */
+    private static final int MAX_REPLAY_LIMIT = 300;
+
+    private final DeadLetterReplayer replayer;
+    private final PermissionVerifier permissionVerifier;
+
+    @Autowired
+    public RestDeadLetterService(DeadLetterReplayer replayer, PermissionVerifier permissionVerifier) {
+        this.replayer = replayer;
+        this.permissionVerifier = permissionVerifier;
+    }
+
+    @ApiOperation(
+            value = "Get requests failed for good in given stage (parsing, downloading or metaparsing)",
+            notes = "Privilege level: Consumer of this endpoint must be a member of organization based on valid access token. "
+                    + "Dead letters tell state and number of attempts of request and the last error, the oldest come first."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = DeadLetter.class, responseContainer = "List"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 403, message = "Can't access this organization."),
+            @ApiResponse(code = 404, message = "There is no such stage."),
+            @ApiResponse(code = 500, message = "Internal server error, see logs for details.")
+    })
+    @RequestMapping(value = "/{stage}", method = GET)
+    @ResponseBody
+    public List<DeadLetter> getDeadLetters(@PathVariable String stage,
+                                           @RequestParam(required = false) String orgs,
+                                           HttpServletRequest context) throws AccessDeniedException {
+        LOGGER.debug("getDeadLetters({})", stage);
+        return replayer.getAll(stage, RequestedOrgs.resolve(permissionVerifier, orgs, context));
+    }
+
+    @ApiOperation(
+            value = "Put requests failed for good back to queue of the stage they failed in",
+            notes = "Privilege level: Consumer of this endpoint must be a member of organization based on valid access token. "
+                    + "The oldest dead letters are replayed first, at most limit of them (" + DEFAULT_REPLAY_LIMIT
+                    + " by default, " + MAX_REPLAY_LIMIT + " at most). Replays are throttled, ids of replayed requests are returned once they are queued."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = String.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Limit is not positive or above the maximum."),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 403, message = "Can't access this organization."),
+            @ApiResponse(code = 404, message = "There is no such stage."),
+            @ApiResponse(code = 500, message = "Internal server error, see logs for details.")
+    })
+    @RequestMapping(value = "/{stage}/replay", method = POST)
+    @ResponseBody
+    public List<String> replay(@PathVariable String stage,
+                               @RequestParam(required = false) String orgs,
+                               @RequestParam(required = false) Integer limit,
+                               HttpServletRequest context) throws AccessDeniedException {
+        LOGGER.debug("replay({})", stage);
+        if (limit != null && (limit <= 0 || limit > MAX_REPLAY_LIMIT)) {
+            throw new BadRequestException("Limit must be between 1 and " + MAX_REPLAY_LIMIT);
+        }
+        return replayer.replay(stage, RequestedOrgs.resolve(permissionVerifier, orgs, context),
+                limit == null ? DEFAULT_REPLAY_LIMIT : limit);
+    }
+}
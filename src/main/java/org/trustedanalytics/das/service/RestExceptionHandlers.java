@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.trustedanalytics.das.store.QueueFullException;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.util.NoSuchElementException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.FORBIDDEN;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
+
+/**
+ * Errors of requests and dead letters REST services. It goes before the generic handlers of
+ * rest-error-handling, as handlers of the services themselves did.
+ */
+@ControllerAdvice(assignableTypes = {RestDataAcquisitionService.class, RestDeadLetterService.class})
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RestExceptionHandlers {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RestExceptionHandlers.class);
+
+    @ExceptionHandler(BadRequestException.class)
+    public void badRequestHandler(BadRequestException exception, HttpServletResponse response) throws IOException {
+        LOGGER.warn("Invalid request: " + exception.getMessage());
+        response.sendError(BAD_REQUEST.value(), exception.getMessage());
+    }
+
+    @ExceptionHandler(QueueFullException.class)
+    public void queueFullHandler(QueueFullException exception, HttpServletResponse response) throws IOException {
+        LOGGER.warn("Request rejected: {}", exception.getMessage());
+        response.sendError(TOO_MANY_REQUESTS.value(), "Too many requests are being processed, try again later.");
+    }
+
+    @ExceptionHandler(NoSuchElementException.class)
+    @ResponseStatus(NOT_FOUND)
+    public void noSuchElementExceptionHandler(NoSuchElementException exception) {
+        LOGGER.warn("No such element: {}", exception.getMessage());
+    }
+
+    @ExceptionHandler(AccessDeniedException.class)
+    public void accessForbidden(AccessDeniedException exception, HttpServletResponse response) throws IOException {
+        LOGGER.warn("Access forbidden: {}", exception.getMessage());
+        response.sendError(FORBIDDEN.value(), "You do not have access to requested organization.");
+    }
+}
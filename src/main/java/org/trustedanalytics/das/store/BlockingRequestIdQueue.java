@@ -15,8 +15,17 @@
  */
 package org.trustedanalytics.das.store;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Approximation of publish/subscribe interface
+ * <p>
+ * Taken elements are delivered at least once. Consumer acknowledges every element when it is
+ * done with it; elements not acknowledged may be delivered again, e.g. after restart.
  *
  */
 public interface BlockingRequestIdQueue {
@@ -27,6 +36,33 @@ public interface BlockingRequestIdQueue {
      */
     void offer(String item);
 
+    /**
+     * Adds elements to queue, implementations may send them together
+     * @param items Items to add
+     */
+    default void offerAll(Collection<String> items) {
+        items.forEach(this::offer);
+    }
+
+    /**
+     * Adds element with key. Partitioned implementations put elements of the same key in the
+     * same partition, so they keep their order. Default implementation ignores the key.
+     * @param item Item to add
+     * @param key Partitioning key, null to let implementation spread items
+     */
+    default void offer(String item, String key) {
+        offer(item);
+    }
+
+    /**
+     * Adds elements with keys, see {@link #offer(String, String)}. Default implementation
+     * ignores the keys.
+     * @param keysByItem Items to add in iteration order, with their keys
+     */
+    default void offerAll(Map<String, String> keysByItem) {
+        offerAll(keysByItem.keySet());
+    }
+
     /**
      * Retrieves element with removing it, or block if queue is empty
      * @return Request element
@@ -34,8 +70,73 @@ public interface BlockingRequestIdQueue {
      */
     String take() throws InterruptedException;
 
+    /**
+     * Retrieves element with removing it, waiting up to timeout if queue is empty. Default
+     * implementation takes it with {@link #drainTo(int, long, TimeUnit)}.
+     * @return Request element, or null if none arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    default String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        List<String> items = drainTo(1, timeout, unit);
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    /**
+     * Retrieves up to max elements with removing them. Waits up to timeout for the first element,
+     * then takes only those already available. Default implementation takes single element
+     * and blocks until it is available.
+     * @return retrieved elements, empty if none arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    default List<String> drainTo(int max, long timeout, TimeUnit unit) throws InterruptedException {
+        String item = take();
+        return item == null ? Collections.emptyList() : Collections.singletonList(item);
+    }
+
+    /**
+     * Number of elements waiting in queue
+     * @return queue size, or negative value if implementation can't tell it
+     */
+    default long size() {
+        return -1;
+    }
+
+    /**
+     * Confirms that taken element was processed and doesn't have to be delivered again.
+     * Implementations may confirm several elements together. Default implementation does
+     * nothing, element is forgotten once taken.
+     * @param item Element taken from queue
+     */
+    default void ack(String item) {
+    }
+
+    /**
+     * Gives up processing of taken element, it is delivered again. Default implementation adds
+     * it back to queue.
+     * @param item Element taken from queue
+     */
+    default void nack(String item) {
+        offer(item);
+    }
+
+    /**
+     * Called by thread which took from queue when it won't take anymore, e.g. by stopped worker.
+     * Implementations free what they keep for the thread. Default implementation does nothing.
+     */
+    default void release() {
+    }
+
     default void processItem(QueueItemConsumer<String> consumer) throws Exception {
         String requestId = take();
-        consumer.consumeItem(requestId);
+        if (requestId == null) {
+            return;
+        }
+        try {
+            consumer.consumeItem(requestId);
+        } catch (Exception e) {
+            nack(requestId);
+            throw e;
+        }
+        ack(requestId);
     }
 }
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.parser.State;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Request that failed in a pipeline stage for good, with the reason of the last failure.
+ */
+public class DeadLetter {
+
+    @Getter
+    private final String requestId;
+
+    @Getter
+    private final String orgUUID;
+
+    @Getter
+    private final String stage;
+
+    /**
+     * State request was processed in, it is restored on replay.
+     */
+    @Getter
+    private final State state;
+
+    @Getter
+    private final String error;
+
+    @Getter
+    private final int attempts;
+
+    /**
+     * Epoch millis of the failure.
+     */
+    @Getter
+    private final long timestamp;
+
+    @JsonCreator
+    public DeadLetter(@JsonProperty("requestId") String requestId, @JsonProperty("orgUUID") String orgUUID,
+                      @JsonProperty("stage") String stage, @JsonProperty("state") State state,
+                      @JsonProperty("error") String error, @JsonProperty("attempts") int attempts,
+                      @JsonProperty("timestamp") long timestamp) {
+        this.requestId = requestId;
+        this.orgUUID = orgUUID;
+        this.stage = stage;
+        this.state = state;
+        this.error = error;
+        this.attempts = attempts;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @param failed request in state it failed in, with attempts failed before
+     */
+    public static DeadLetter of(String stage, Request failed, Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return new DeadLetter(failed.getId(), failed.getOrgUUID(), stage, failed.getState(),
+                cause.toString(), failed.getAttempts() + 1, System.currentTimeMillis());
+    }
+
+    @Override
+    public String toString() {
+        return "DeadLetter [requestId=" + requestId + ", stage=" + stage + ", attempts=" + attempts
+                + ", error=" + error + "]";
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Requests failed for good, kept per pipeline stage until they are replayed or removed.
+ */
+public interface DeadLetterStore {
+
+    /**
+     * Adds dead letter, replacing the previous one of the same request in the stage
+     * @param letter Dead letter to add
+     */
+    void add(DeadLetter letter);
+
+    /**
+     * @param stage Name of pipeline stage
+     * @param orgIds Organizations to get dead letters of
+     * @return dead letters of the organizations in the stage, the oldest first
+     */
+    List<DeadLetter> getAll(String stage, Collection<String> orgIds);
+
+    /**
+     * @return false if there was no such dead letter
+     */
+    boolean remove(DeadLetter letter);
+
+    long size(String stage);
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stage queue handing requests out fairly among organizations.
+ * <p>
+ * Takes messages from the underlying queue into a bounded buffer with one sub-queue per
+ * organization and serves the sub-queues with deficit round robin: in its turn an organization
+ * gets as many requests as its weight, so a big batch of one organization doesn't hold requests
+ * of others behind it, but still gets the whole stage when nobody else is waiting. Organization
+ * is read from the message, see {@link RequestMessage}; messages without it share one sub-queue.
+ * <p>
+ * Buffered messages stay unacknowledged in the underlying queue until workers are done with them.
+ */
+public class FairRequestIdQueue implements BlockingRequestIdQueue {
+
+    static final String UNKNOWN_ORG = "";
+
+    private static final long TAKE_TIMEOUT_MILLIS = 1000;
+
+    private final BlockingRequestIdQueue delegate;
+
+    private final RequestMessage.Codec messages;
+
+    private final int bufferSize;
+
+    private final int defaultWeight;
+
+    private final Map<String, Integer> weights;
+
+    /**
+     * Organizations with buffered messages, the first one is in its turn.
+     */
+    private final Deque<OrgQueue> active = new ArrayDeque<>();
+
+    private final Map<String, OrgQueue> byOrg = new HashMap<>();
+
+    private int buffered;
+
+    /**
+     * Room taken by workers draining underlying queue, so that buffer never grows over its size.
+     */
+    private int reserved;
+
+    /**
+     * @param messages reads organization of request from queue messages
+     * @param bufferSize messages taken ahead from underlying queue
+     * @param defaultWeight requests per turn of organizations without weight
+     * @param weights requests per turn by organization
+     */
+    public FairRequestIdQueue(BlockingRequestIdQueue delegate, RequestMessage.Codec messages, int bufferSize,
+            int defaultWeight, Map<String, Integer> weights) {
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be positive");
+        Preconditions.checkArgument(defaultWeight > 0 && weights.values().stream().allMatch(weight -> weight > 0),
+                "weights must be positive");
+        this.delegate = delegate;
+        this.messages = messages;
+        this.bufferSize = bufferSize;
+        this.defaultWeight = defaultWeight;
+        this.weights = ImmutableMap.copyOf(weights);
+    }
+
+    @Override
+    public void offer(String item) {
+        delegate.offer(item);
+    }
+
+    @Override
+    public void offerAll(Collection<String> items) {
+        delegate.offerAll(items);
+    }
+
+    @Override
+    public void offer(String item, String key) {
+        delegate.offer(item, key);
+    }
+
+    @Override
+    public void offerAll(Map<String, String> keysByItem) {
+        delegate.offerAll(keysByItem);
+    }
+
+    /**
+     * Unlike most queues returns null when nothing arrives in a second, so that stopped worker
+     * notices it.
+     */
+    @Override
+    public String take() throws InterruptedException {
+        List<String> items = drainTo(1, TAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    /**
+     * Waits for underlying queue only when nothing is buffered.
+     */
+    @Override
+    public List<String> drainTo(int max, long timeout, TimeUnit unit) throws InterruptedException {
+        int room;
+        boolean empty;
+        synchronized (this) {
+            room = bufferSize - buffered - reserved;
+            empty = buffered == 0;
+            if (room > 0) {
+                reserved += room;
+            }
+        }
+        // taken outside of the lock, so other workers keep getting buffered messages meanwhile
+        if (room > 0) {
+            List<String> taken = Collections.emptyList();
+            try {
+                taken = delegate.drainTo(room, empty ? timeout : 0, unit);
+            } finally {
+                synchronized (this) {
+                    reserved -= room;
+                    taken.forEach(this::add);
+                    notifyAll();
+                }
+            }
+        }
+        synchronized (this) {
+            if (buffered == 0 && room <= 0 && timeout > 0) {
+                // other workers are filling the whole buffer
+                unit.timedWait(this, timeout);
+            }
+            if (buffered == 0) {
+                return Collections.emptyList();
+            }
+            List<String> items = new ArrayList<>(Math.min(max, buffered));
+            while (items.size() < max && buffered > 0) {
+                items.add(next());
+            }
+            return items;
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = delegate.size();
+        return size < 0 ? size : size + buffered();
+    }
+
+    @Override
+    public void ack(String item) {
+        delegate.ack(item);
+    }
+
+    @Override
+    public void nack(String item) {
+        delegate.nack(item);
+    }
+
+    @Override
+    public void release() {
+        delegate.release();
+    }
+
+    synchronized int buffered() {
+        return buffered;
+    }
+
+    private void add(String item) {
+        String org = orgOf(item);
+        OrgQueue queue = byOrg.get(org);
+        if (queue == null) {
+            queue = new OrgQueue(org, weights.getOrDefault(org, defaultWeight));
+            byOrg.put(org, queue);
+            active.addLast(queue);
+        }
+        queue.items.addLast(item);
+        buffered++;
+    }
+
+    private String next() {
+        OrgQueue queue = active.peekFirst();
+        if (queue.deficit == 0) {
+            queue.deficit = queue.weight;
+        }
+        String item = queue.items.pollFirst();
+        queue.deficit--;
+        buffered--;
+        if (queue.items.isEmpty()) {
+            active.pollFirst();
+            byOrg.remove(queue.org);
+        } else if (queue.deficit == 0) {
+            active.addLast(active.pollFirst());
+        }
+        return item;
+    }
+
+    private String orgOf(String item) {
+        try {
+            return messages.decode(item).getOrg().orElse(UNKNOWN_ORG);
+        } catch (IllegalArgumentException e) {
+            // worker rejects it, order doesn't matter
+            return UNKNOWN_ORG;
+        }
+    }
+
+    private static class OrgQueue {
+        private final String org;
+        private final int weight;
+        private final Deque<String> items = new ArrayDeque<>();
+        private int deficit;
+
+        OrgQueue(String org, int weight) {
+            this.org = org;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import java.util.List;
+
+/**
+ * Thrown when queue has no room for offered items, or fails to store them.
+ */
+public class QueueFullException extends RuntimeException {
+
+    private final List<String> rejected;
+
+    public QueueFullException(String msg, List<String> rejected) {
+        super(msg);
+        this.rejected = rejected;
+    }
+
+    /**
+     * @return items that were not added to queue, other offered items were added
+     */
+    public List<String> getRejected() {
+        return rejected;
+    }
+}
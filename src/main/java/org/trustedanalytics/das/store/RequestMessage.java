@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trustedanalytics.das.parser.Request;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+/**
+ * Queue message. It is either plain request id, or an envelope carrying the id together with
+ * organization of request and optionally request snapshot, so consumer doesn't have to read the
+ * request from store.
+ * <p>
+ * Envelope is versioned. Snapshot of a different version than the current one is ignored and
+ * consumer falls back to the store. Envelope with snapshot tells when it was encoded, so consumer
+ * can tell snapshot too old to rely on.
+ */
+public class RequestMessage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestMessage.class);
+
+    /**
+     * Has to be increased on every incompatible change of {@link Request} serialized form.
+     */
+    public static final int VERSION = 1;
+
+    private final String id;
+
+    private final String org;
+
+    private final Request snapshot;
+
+    private final long timestamp;
+
+    private RequestMessage(String id, String org, Request snapshot, long timestamp) {
+        this.id = id;
+        this.org = org;
+        this.snapshot = snapshot;
+        this.timestamp = timestamp;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return request as it was when enqueued, empty when message carries only the id
+     */
+    public Optional<Request> getSnapshot() {
+        return Optional.ofNullable(snapshot);
+    }
+
+    /**
+     * @return epoch millis snapshot was taken at, 0 when it is not known
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return organization of request, empty when message carries only the id
+     */
+    public Optional<String> getOrg() {
+        return Optional.ofNullable(org);
+    }
+
+    /**
+     * Encodes and decodes messages with mapper of the application, so snapshot is serialized the
+     * same way as request in REST responses.
+     */
+    public static class Codec {
+
+        private final ObjectMapper mapper;
+
+        public Codec(ObjectMapper mapper) {
+            this.mapper = mapper;
+        }
+
+        public String encode(Request request) {
+            ObjectNode envelope = newEnvelope(request.getId(), request.getOrgUUID());
+            envelope.set("request", mapper.valueToTree(request));
+            envelope.put("timestamp", System.currentTimeMillis());
+            return toString(envelope);
+        }
+
+        /**
+         * Envelope without snapshot, consumer reads request from store.
+         */
+        public String encode(String id, String org) {
+            return toString(newEnvelope(id, org));
+        }
+
+        private ObjectNode newEnvelope(String id, String org) {
+            ObjectNode envelope = mapper.createObjectNode();
+            envelope.put("version", VERSION);
+            envelope.put("id", id);
+            envelope.put("org", org);
+            return envelope;
+        }
+
+        private String toString(ObjectNode envelope) {
+            try {
+                return mapper.writeValueAsString(envelope);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public RequestMessage decode(String message) {
+            if (message == null || !message.startsWith("{")) {
+                return new RequestMessage(message, null, null, 0);
+            }
+            try {
+                JsonNode envelope = mapper.readTree(message);
+                String id = envelope.path("id").asText();
+                String org = envelope.hasNonNull("org") ? envelope.get("org").asText() : null;
+                if (envelope.path("version").asInt() != VERSION) {
+                    LOGGER.debug("Envelope of request {} has version {}, ignoring snapshot", id,
+                            envelope.path("version"));
+                    return new RequestMessage(id, org, null, 0);
+                }
+                if (!envelope.hasNonNull("request")) {
+                    return new RequestMessage(id, org, null, 0);
+                }
+                return new RequestMessage(id, org, mapper.treeToValue(envelope.get("request"), Request.class),
+                        envelope.path("timestamp").asLong());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Malformed queue message: " + message, e);
+            }
+        }
+    }
+}
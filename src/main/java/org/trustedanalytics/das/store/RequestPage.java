@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import org.trustedanalytics.das.parser.Request;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Single page of {@link RequestQuery} result.
+ */
+public class RequestPage {
+
+    private final List<Request> items;
+
+    private final String nextCursor;
+
+    public RequestPage(List<Request> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Request> getItems() {
+        return items;
+    }
+
+    /**
+     * @return cursor of the next page, empty if this is the last one
+     */
+    public Optional<String> getNextCursor() {
+        return Optional.ofNullable(nextCursor);
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.parser.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Filtered, sorted by creation time and paged listing of requests of given organizations.
+ * Page boundary is described by an opaque cursor pointing at the last returned request.
+ */
+public class RequestQuery {
+
+    public static class RequestQueryBuilder {
+
+        private final Collection<String> orgIds;
+
+        private State state;
+
+        private String category;
+
+        private Long since;
+
+        private int limit;
+
+        private String cursor;
+
+        private boolean ascending;
+
+        public RequestQueryBuilder(Collection<String> orgIds) {
+            this.orgIds = orgIds;
+        }
+
+        public RequestQueryBuilder withState(State state) {
+            this.state = state;
+            return this;
+        }
+
+        public RequestQueryBuilder withCategory(String category) {
+            this.category = category;
+            return this;
+        }
+
+        public RequestQueryBuilder withSince(Long since) {
+            this.since = since;
+            return this;
+        }
+
+        public RequestQueryBuilder withLimit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public RequestQueryBuilder withCursor(String cursor) {
+            this.cursor = cursor;
+            return this;
+        }
+
+        public RequestQueryBuilder withAscending(boolean ascending) {
+            this.ascending = ascending;
+            return this;
+        }
+
+        public RequestQuery build() {
+            return new RequestQuery(orgIds, state, category, since, limit,
+                    cursor == null ? null : Position.decode(cursor), ascending);
+        }
+    }
+
+    /**
+     * Place of a request in the creation time order.
+     */
+    public static final class Position {
+
+        private final long createdAt;
+
+        private final String id;
+
+        public Position(long createdAt, String id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+
+        public static Position of(Request request) {
+            return new Position(getCreationTime(request), request.getId());
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        String encode() {
+            String position = createdAt + ":" + id;
+            return Base64.getUrlEncoder().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Position decode(String cursor) {
+            try {
+                String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = position.indexOf(':');
+                return new Position(Long.parseLong(position.substring(0, separator)),
+                        position.substring(separator + 1));
+            } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+            }
+        }
+    }
+
+    private static final Comparator<Position> ASCENDING =
+            Comparator.comparingLong(Position::getCreatedAt).thenComparing(Position::getId);
+
+    private final Collection<String> orgIds;
+
+    private final State state;
+
+    private final String category;
+
+    private final Long since;
+
+    private final int limit;
+
+    private final Position cursor;
+
+    private final boolean ascending;
+
+    private RequestQuery(Collection<String> orgIds, State state, String category, Long since,
+                         int limit, Position cursor, boolean ascending) {
+        this.orgIds = orgIds;
+        this.state = state;
+        this.category = category;
+        this.since = since;
+        this.limit = limit;
+        this.cursor = cursor;
+        this.ascending = ascending;
+    }
+
+    public Collection<String> getOrgIds() {
+        return orgIds;
+    }
+
+    public Long getSince() {
+        return since;
+    }
+
+    /**
+     * @return maximal size of page, 0 when all matching requests should be returned
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public Position getCursor() {
+        return cursor;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public Comparator<Position> getOrder() {
+        return ascending ? ASCENDING : ASCENDING.reversed();
+    }
+
+    /**
+     * @return true when request matches filters of this query, cursor and creation time are
+     * not checked
+     */
+    public boolean matches(Request request) {
+        return (state == null || state == request.getState())
+                && (category == null || category.equals(request.getCategory()));
+    }
+
+    /**
+     * @return true when query has no filters checked by {@link #matches(Request)}
+     */
+    public boolean matchesAll() {
+        return state == null && category == null;
+    }
+
+    /**
+     * @return true when position is after the cursor and not older than "since" bound
+     */
+    public boolean isInRange(Position position) {
+        return (since == null || position.getCreatedAt() >= since)
+                && (cursor == null || getOrder().compare(position, cursor) > 0);
+    }
+
+    /**
+     * Builds page out of all requests of queried organizations.
+     */
+    public RequestPage apply(Collection<Request> requests) {
+        return toPage(requests.stream()
+                .filter(this::matches)
+                .filter(request -> isInRange(Position.of(request)))
+                .sorted(Comparator.comparing(Position::of, getOrder()))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * @param sortedMatching requests matching this query in its order, starting right after the
+     * cursor; it is enough to pass one request more than the limit
+     */
+    public RequestPage toPage(List<Request> sortedMatching) {
+        if (limit == 0 || sortedMatching.size() <= limit) {
+            return new RequestPage(sortedMatching, null);
+        }
+        List<Request> items = new ArrayList<>(sortedMatching.subList(0, limit));
+        return new RequestPage(items, Position.of(items.get(limit - 1)).encode());
+    }
+
+    public static long getCreationTime(Request request) {
+        Map<State, Long> timestamps = request.getTimestamps();
+        if (timestamps == null) {
+            return 0;
+        }
+        Long createdAt = timestamps.get(State.NEW);
+        return createdAt == null ? 0 : createdAt;
+    }
+}
@@ -17,9 +17,12 @@ package org.trustedanalytics.das.store;
 
 import org.trustedanalytics.das.parser.Request;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * 
@@ -29,24 +32,57 @@ public interface RequestStore {
 
     void put(Request request);
 
+    default void putAll(Collection<Request> requests) {
+        requests.forEach(this::put);
+    }
+
     Optional<Request> get(String key);
 
+    /**
+     * Reads several requests by id. Default implementation reads them one by one.
+     * @return found requests by id, missing ids are left out
+     */
+    default Map<String, Request> multiGet(Collection<String> keys) {
+        Map<String, Request> result = new HashMap<>();
+        keys.forEach(key -> get(key).ifPresent(request -> result.put(key, request)));
+        return result;
+    }
+
+    /**
+     * Tells which of given requests are still stored. Default implementation reads them.
+     * @return ids of stored requests
+     */
+    default Set<String> existing(Collection<String> keys) {
+        return multiGet(keys).keySet();
+    }
+
     Map<String, Request> getAll(String orgId);
 
-    void delete(String key);
+    default Map<String, Request> getAll(Collection<String> orgIds) {
+        Map<String, Request> result = new HashMap<>();
+        orgIds.forEach(orgId -> result.putAll(getAll(orgId)));
+        return result;
+    }
 
-    default String getOrgPrefixedKey(String orgId, String key) {
-        return String.format("%s:%s", orgId, key);
+    /**
+     * Finds single page of requests. Default implementation reads all requests of queried
+     * organizations.
+     */
+    default RequestPage find(RequestQuery query) {
+        return query.apply(getAll(query.getOrgIds()).values());
     }
 
-    default Map<String, Request> filterByOrgId(Map<String, Request> requests, String orgId) {
-        return requests.entrySet().stream().filter(x -> x.getKey().startsWith(orgId + ":"))
-            .collect(Collectors.toMap(x -> x.getKey(), x -> x.getValue()));
+    /**
+     * Lazily reads all requests of given organization. Returned stream has to be closed.
+     * Default implementation reads whole organization at once.
+     */
+    default Stream<Request> stream(String orgId) {
+        return getAll(orgId).values().stream();
     }
 
-    default Map<String, Request> filterByKey(Map<String, Request> requests, String keyUUID) {
-        return requests.entrySet().stream()
-            .filter(x -> x.getKey().endsWith(":" + keyUUID))
-            .collect(Collectors.toMap(x -> x.getKey(), x -> x.getValue()));
+    void delete(String key);
+
+    default String getOrgPrefixedKey(String orgId, String key) {
+        return String.format("%s:%s", orgId, key);
     }
 }
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import java.util.List;
+
+/**
+ * Requests waiting for another attempt in a pipeline stage, ordered by the time it is due.
+ */
+public interface RetryStore {
+
+    /**
+     * Adds request to be put back to queue of given stage
+     * @param stage Name of pipeline stage
+     * @param requestId Request to retry
+     * @param dueMillis Epoch time of the retry
+     */
+    void schedule(String stage, String requestId, long dueMillis);
+
+    /**
+     * Removes and returns retries due at given time
+     * @param nowMillis Current epoch time
+     * @param max Limit of retries returned at once
+     * @return due retries
+     */
+    List<ScheduledRetry> takeDue(long nowMillis, int max);
+
+    /**
+     * Number of retries waiting
+     */
+    long size();
+}
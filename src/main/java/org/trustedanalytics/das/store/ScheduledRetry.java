@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import lombok.Getter;
+
+import java.util.Objects;
+
+/**
+ * Request to be put back to queue of pipeline stage.
+ */
+public class ScheduledRetry {
+
+    @Getter
+    private final String stage;
+
+    @Getter
+    private final String requestId;
+
+    public ScheduledRetry(String stage, String requestId) {
+        this.stage = stage;
+        this.requestId = requestId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ScheduledRetry other = (ScheduledRetry) o;
+        return Objects.equals(stage, other.stage) && Objects.equals(requestId, other.requestId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(stage, requestId);
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduledRetry [stage=" + stage + ", requestId=" + requestId + "]";
+    }
+}
@@ -15,7 +15,10 @@
  */
 package org.trustedanalytics.das.store.cloud;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.trustedanalytics.das.store.DeadLetterStore;
 import org.trustedanalytics.das.store.RequestStore;
+import org.trustedanalytics.das.store.RetryStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -23,6 +26,7 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.trustedanalytics.das.parser.Request;
@@ -36,6 +40,12 @@ public class CloudStoreConfig {
     @Value("requests")
     private String redisRequestsKey;
 
+    @Value("retries")
+    private String redisRetriesKey;
+
+    @Value("deadletters")
+    private String redisDeadLettersKey;
+
     @Value("${request.store.db.cipher.key}")
     private String cipher;
 
@@ -49,9 +59,25 @@ public class CloudStoreConfig {
         return new SecureJacksonJsonRedisSerializer<Request>(Request.class, encryptionService);
     }
 
+    @Bean(initMethod = "migrate")
+    public RequestStore redisRequestStore(RedisOperations<String, Request> redisTemplate,
+                                          StringRedisTemplate stringRedisTemplate) {
+        return new RedisRequestRepository(redisTemplate, stringRedisTemplate, redisRequestsKey);
+    }
+
+    @Bean
+    public RetryStore redisRetryStore(StringRedisTemplate stringRedisTemplate) {
+        return new RedisRetryStore(stringRedisTemplate, redisRetriesKey);
+    }
+
+    @Bean
+    public DeadLetterStore redisDeadLetterStore(StringRedisTemplate stringRedisTemplate, ObjectMapper objectMapper) {
+        return new RedisDeadLetterStore(stringRedisTemplate, redisDeadLettersKey, objectMapper);
+    }
+
     @Bean
-    public RequestStore redisRequestStore(RedisOperations<String, Request> redisTemplate) {
-        return new RedisRequestRepository(redisTemplate.boundHashOps(redisRequestsKey));
+    public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        return new StringRedisTemplate(redisConnectionFactory);
     }
 
     @Bean
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.cloud;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.trustedanalytics.das.store.DeadLetter;
+import org.trustedanalytics.das.store.DeadLetterStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Dead letters of every stage are kept in separate hash, keyed by request id. They carry no
+ * user token, so they are stored as plain JSON. Ids of dead letters of every organization in
+ * the stage are indexed in a set, so that organization doesn't read dead letters of the others.
+ */
+public class RedisDeadLetterStore implements DeadLetterStore {
+
+    private final HashOperations<String, String, String> hashOps;
+
+    private final SetOperations<String, String> setOps;
+
+    private final String keyPrefix;
+
+    private final ObjectMapper objectMapper;
+
+    public RedisDeadLetterStore(StringRedisTemplate template, String keyPrefix, ObjectMapper objectMapper) {
+        this.hashOps = template.opsForHash();
+        this.setOps = template.opsForSet();
+        this.keyPrefix = keyPrefix;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void add(DeadLetter letter) {
+        try {
+            hashOps.put(key(letter.getStage()), letter.getRequestId(), objectMapper.writeValueAsString(letter));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        setOps.add(orgKey(letter.getStage(), letter.getOrgUUID()), letter.getRequestId());
+    }
+
+    @Override
+    public List<DeadLetter> getAll(String stage, Collection<String> orgIds) {
+        List<DeadLetter> letters = new ArrayList<>();
+        for (String orgId : orgIds) {
+            Set<String> ids = setOps.members(orgKey(stage, orgId));
+            if (ids == null || ids.isEmpty()) {
+                continue;
+            }
+            // ids of letters removed while indexed are left out
+            hashOps.multiGet(key(stage), ids).stream()
+                    .filter(Objects::nonNull)
+                    .map(this::decode)
+                    .forEach(letters::add);
+        }
+        letters.sort(Comparator.comparingLong(DeadLetter::getTimestamp));
+        return letters;
+    }
+
+    @Override
+    public boolean remove(DeadLetter letter) {
+        Long removed = hashOps.delete(key(letter.getStage()), letter.getRequestId());
+        setOps.remove(orgKey(letter.getStage(), letter.getOrgUUID()), letter.getRequestId());
+        return removed != null && removed > 0;
+    }
+
+    @Override
+    public long size(String stage) {
+        Long size = hashOps.size(key(stage));
+        return size == null ? 0 : size;
+    }
+
+    private String key(String stage) {
+        return keyPrefix + ":" + stage;
+    }
+
+    private String orgKey(String stage, String orgId) {
+        return key(stage) + ":orgs:" + orgId;
+    }
+
+    private DeadLetter decode(String json) {
+        try {
+            return objectMapper.readValue(json, DeadLetter.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -15,45 +15,475 @@
  */
 package org.trustedanalytics.das.store.cloud;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trustedanalytics.das.store.RequestPage;
+import org.trustedanalytics.das.store.RequestQuery;
+import org.trustedanalytics.das.store.RequestQuery.Position;
 import org.trustedanalytics.das.store.RequestStore;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.BoundHashOperations;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import org.trustedanalytics.das.parser.Request;
 
+/**
+ * Requests of every organization are kept in separate hash, keyed by plain request id. Second
+ * hash maps request id to organization, so lookups by id are single key operations. Sorted set
+ * per organization orders request ids by creation time, it is used for paged queries.
+ */
 public class RedisRequestRepository implements RequestStore {
 
-    private final BoundHashOperations<String, String, Request> hashOps;
-    
-    public RedisRequestRepository(BoundHashOperations<String, String, Request> hashOps) {
-        this.hashOps = hashOps;
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisRequestRepository.class);
+
+    private static final int MIGRATION_BATCH_SIZE = 500;
+
+    private static final int QUERY_BATCH_SIZE = 200;
+
+    /**
+     * Serializer of the index and timelines, the same as used by StringRedisTemplate.
+     */
+    private static final RedisSerializer<String> STRINGS = new StringRedisSerializer();
+
+    private final RedisOperations<String, Request> redisTemplate;
+
+    private final HashOperations<String, String, Request> hashOps;
+
+    private final ZSetOperations<String, String> timelines;
+
+    private final String requestsKey;
+
+    private final BoundHashOperations<String, String, String> orgIndex;
+
+    /**
+     * Single hash with org prefixed keys, used before requests were split by organization.
+     */
+    private final BoundHashOperations<String, String, Request> legacyRequests;
+
+    public RedisRequestRepository(RedisOperations<String, Request> redisTemplate,
+                                  RedisOperations<String, String> stringTemplate,
+                                  String requestsKey) {
+        this.redisTemplate = redisTemplate;
+        this.hashOps = redisTemplate.opsForHash();
+        this.timelines = stringTemplate.opsForZSet();
+        this.requestsKey = requestsKey;
+        this.orgIndex = stringTemplate.boundHashOps(getOrgIndexKey());
+        this.legacyRequests = redisTemplate.boundHashOps(requestsKey);
     }
 
     @Override
     public void put(Request request) {
-        hashOps.put(
-            this.getOrgPrefixedKey(request.getOrgUUID(), request.getId()),
-            request);
+        String orgId = String.valueOf(request.getOrgUUID());
+        hashOps.put(getOrgKey(orgId), request.getId(), request);
+        orgIndex.put(request.getId(), orgId);
+        timelines.add(getTimelineKey(orgId), request.getId(), RequestQuery.getCreationTime(request));
+    }
+
+    /**
+     * Writes requests, index entries and timeline entries in single pipelined round trip.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void putAll(Collection<Request> requests) {
+        RedisSerializer<String> keys = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        RedisSerializer<String> hashKeys = (RedisSerializer<String>) redisTemplate.getHashKeySerializer();
+        RedisSerializer<Request> values = (RedisSerializer<Request>) redisTemplate.getHashValueSerializer();
+        byte[] rawOrgIndexKey = STRINGS.serialize(getOrgIndexKey());
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Request request : requests) {
+                String orgId = String.valueOf(request.getOrgUUID());
+                byte[] rawId = STRINGS.serialize(request.getId());
+                connection.hSet(keys.serialize(getOrgKey(orgId)), hashKeys.serialize(request.getId()),
+                    values.serialize(request));
+                connection.hSet(rawOrgIndexKey, rawId, STRINGS.serialize(orgId));
+                connection.zAdd(STRINGS.serialize(getTimelineKey(orgId)), RequestQuery.getCreationTime(request), rawId);
+            }
+            return null;
+        });
     }
 
     @Override
     public Optional<Request> get(String key) {
-        return this.filterByKey(this.hashOps.entries(), key).values()
-            .stream()
-            .findFirst();
+        String orgId = orgIndex.get(key);
+        if (orgId == null) {
+            return getLegacy(key);
+        }
+        return Optional.ofNullable(hashOps.get(getOrgKey(orgId), key));
+    }
+
+    /**
+     * Organizations of all ids are read at once, requests of every organization with single
+     * pipelined HMGET each.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Request> multiGet(Collection<String> keys) {
+        List<String> ids = new ArrayList<>(keys);
+        List<String> orgIds = orgIndex.multiGet(ids);
+        Map<String, List<String>> idsByOrg = new LinkedHashMap<>();
+        Map<String, Request> requests = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            String orgId = orgIds.get(i);
+            if (orgId == null) {
+                getLegacy(id).ifPresent(request -> requests.put(id, request));
+            } else {
+                idsByOrg.computeIfAbsent(orgId, x -> new ArrayList<>()).add(id);
+            }
+        }
+        if (idsByOrg.isEmpty()) {
+            return requests;
+        }
+
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                idsByOrg.forEach((orgId, orgRequestIds) -> operations.opsForHash()
+                    .multiGet((K) getOrgKey(orgId), (Collection<Object>) (Collection<?>) orgRequestIds));
+                return null;
+            }
+        });
+        Iterator<Object> result = results.iterator();
+        idsByOrg.values().forEach(orgRequestIds -> {
+            Iterator<Request> values = ((List<Request>) result.next()).iterator();
+            orgRequestIds.forEach(id -> {
+                Request request = values.next();
+                if (request != null) {
+                    requests.put(id, request);
+                }
+            });
+        });
+        return requests;
+    }
+
+    /**
+     * Requests are looked up in the organization index, they are not read themselves.
+     */
+    @Override
+    public Set<String> existing(Collection<String> keys) {
+        List<String> ids = new ArrayList<>(keys);
+        List<String> orgIds = orgIndex.multiGet(ids);
+        Set<String> existing = new HashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (orgIds.get(i) != null || getLegacy(ids.get(i)).isPresent()) {
+                existing.add(ids.get(i));
+            }
+        }
+        return existing;
     }
 
     @Override
     public Map<String, Request> getAll(String orgId) {
-        return this.filterByOrgId(this.hashOps.entries(), orgId);
+        return withOrgPrefixedKeys(orgId, hashOps.entries(getOrgKey(orgId)));
+    }
+
+    /**
+     * Reads all given organizations in single pipelined round trip.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Request> getAll(Collection<String> orgIds) {
+        List<String> orgs = new ArrayList<>(orgIds);
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                orgs.forEach(orgId -> operations.opsForHash().entries((K) getOrgKey(orgId)));
+                return null;
+            }
+        });
+
+        Map<String, Request> all = new HashMap<>();
+        Iterator<Object> result = results.iterator();
+        for (String orgId : orgs) {
+            Map<String, Request> requests = (Map<String, Request>) result.next();
+            if (requests != null) {
+                all.putAll(withOrgPrefixedKeys(orgId, requests));
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Ids are taken in requested order from organization timelines. Requests are then read in
+     * batches only until the page is filled.
+     */
+    @Override
+    public RequestPage find(RequestQuery query) {
+        int wanted = query.getLimit() == 0 ? Integer.MAX_VALUE : query.getLimit() + 1;
+        // when no filter is given, every request in range belongs to the page
+        int neededPerOrg = query.matchesAll() ? wanted : Integer.MAX_VALUE;
+
+        Map<Position, String> candidates = new HashMap<>();
+        for (String orgId : query.getOrgIds()) {
+            readTimeline(orgId, query, neededPerOrg).forEach(position -> candidates.put(position, orgId));
+        }
+        List<Position> ordered = new ArrayList<>(candidates.keySet());
+        ordered.sort(query.getOrder());
+
+        List<Request> matching = new ArrayList<>();
+        for (int from = 0; from < ordered.size() && matching.size() < wanted; from += QUERY_BATCH_SIZE) {
+            List<Position> batch = ordered.subList(from, Math.min(from + QUERY_BATCH_SIZE, ordered.size()));
+            Map<String, Request> requests = readRequests(batch, candidates);
+            for (Position position : batch) {
+                Request request = requests.get(position.getId());
+                if (request != null && query.matches(request) && matching.size() < wanted) {
+                    matching.add(request);
+                }
+            }
+        }
+        return query.toPage(matching);
+    }
+
+    /**
+     * Organization hash is read with HSCAN, so only single batch of requests is held at once.
+     */
+    @Override
+    public Stream<Request> stream(String orgId) {
+        Cursor<Map.Entry<String, Request>> cursor = scan(redisTemplate.boundHashOps(getOrgKey(orgId)));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.NONNULL), false)
+            .map(Map.Entry::getValue)
+            .onClose(() -> {
+                try {
+                    cursor.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
     }
 
     @Override
     public void delete(String key) {
-        String fullKey =
-            this.filterByKey(this.hashOps.entries(), key).keySet().stream().findFirst().get();
-        hashOps.delete(fullKey);
+        String orgId = Optional.ofNullable(orgIndex.get(key))
+            .orElseGet(() -> getLegacy(key).get().getOrgUUID());
+        hashOps.delete(getOrgKey(orgId), key);
+        timelines.remove(getTimelineKey(orgId), key);
+        orgIndex.delete(key);
+    }
+
+    /**
+     * Brings data written by previous versions to the current layout.
+     */
+    public void migrate() throws IOException {
+        migrateLegacyStore();
+        fillTimelines();
+    }
+
+    /**
+     * Moves requests from the single legacy hash to per organization hashes. It is done in
+     * batches, so migration interrupted in the middle is continued on next start.
+     */
+    private void migrateLegacyStore() throws IOException {
+        if (!redisTemplate.hasKey(requestsKey)) {
+            return;
+        }
+        LOGGER.info("Migrating requests from '{}' hash to per organization hashes", requestsKey);
+        int migrated = 0;
+        Map<String, Request> batch = new HashMap<>();
+        try (Cursor<Map.Entry<String, Request>> cursor = scan(legacyRequests)) {
+            while (cursor.hasNext()) {
+                Map.Entry<String, Request> entry = cursor.next();
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() >= MIGRATION_BATCH_SIZE) {
+                    migrated += migrate(batch);
+                }
+            }
+        }
+        migrated += migrate(batch);
+        LOGGER.info("Migrated {} requests", migrated);
+    }
+
+    private int migrate(Map<String, Request> batch) {
+        int size = batch.size();
+        if (size == 0) {
+            return 0;
+        }
+        Map<String, Map<String, Request>> byOrg = new HashMap<>();
+        Map<String, String> index = new HashMap<>();
+        batch.values().forEach(request -> {
+            String orgId = String.valueOf(request.getOrgUUID());
+            byOrg.computeIfAbsent(orgId, x -> new HashMap<>()).put(request.getId(), request);
+            index.put(request.getId(), orgId);
+        });
+        byOrg.forEach((orgId, requests) -> {
+            hashOps.putAll(getOrgKey(orgId), requests);
+            timelines.add(getTimelineKey(orgId), toTimelineEntries(requests.values()));
+        });
+        orgIndex.putAll(index);
+        legacyRequests.delete(batch.keySet().toArray());
+        batch.clear();
+        return size;
+    }
+
+    /**
+     * Organization hashes created before timelines were introduced get their timeline here.
+     */
+    private void fillTimelines() throws IOException {
+        Set<String> orgIds = new HashSet<>(orgIndex.values());
+        for (String orgId : orgIds) {
+            if (redisTemplate.hasKey(getTimelineKey(orgId))) {
+                continue;
+            }
+            LOGGER.info("Creating requests timeline for organization {}", orgId);
+            List<Request> batch = new ArrayList<>();
+            try (Cursor<Map.Entry<String, Request>> cursor = scan(redisTemplate.boundHashOps(getOrgKey(orgId)))) {
+                while (cursor.hasNext()) {
+                    batch.add(cursor.next().getValue());
+                    if (batch.size() >= MIGRATION_BATCH_SIZE) {
+                        timelines.add(getTimelineKey(orgId), toTimelineEntries(batch));
+                        batch.clear();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                timelines.add(getTimelineKey(orgId), toTimelineEntries(batch));
+            }
+        }
+    }
+
+    /**
+     * @param needed how many positions in query range are needed, Integer.MAX_VALUE reads whole
+     * range
+     */
+    private List<Position> readTimeline(String orgId, RequestQuery query, int needed) {
+        double min = query.getSince() == null ? Double.NEGATIVE_INFINITY : query.getSince();
+        double max = Double.POSITIVE_INFINITY;
+        Position cursor = query.getCursor();
+        if (cursor != null && query.isAscending()) {
+            min = Math.max(min, cursor.getCreatedAt());
+        } else if (cursor != null) {
+            max = cursor.getCreatedAt();
+        }
+
+        List<Position> positions = new ArrayList<>();
+        String key = getTimelineKey(orgId);
+        if (needed == Integer.MAX_VALUE) {
+            addInRange(positions, query, query.isAscending()
+                ? timelines.rangeByScoreWithScores(key, min, max)
+                : timelines.reverseRangeByScoreWithScores(key, min, max));
+            return positions;
+        }
+
+        long count = Math.max(needed, QUERY_BATCH_SIZE);
+        for (long offset = 0; positions.size() < needed; offset += count) {
+            Set<TypedTuple<String>> window = query.isAscending()
+                ? timelines.rangeByScoreWithScores(key, min, max, offset, count)
+                : timelines.reverseRangeByScoreWithScores(key, min, max, offset, count);
+            addInRange(positions, query, window);
+            if (window.size() < count) {
+                break;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Requests created in the same second as the cursor are in score range, but could be
+     * already returned.
+     */
+    private static void addInRange(List<Position> positions, RequestQuery query, Set<TypedTuple<String>> tuples) {
+        tuples.stream()
+            .map(tuple -> new Position(tuple.getScore().longValue(), tuple.getValue()))
+            .filter(query::isInRange)
+            .forEach(positions::add);
+    }
+
+    private Map<String, Request> readRequests(List<Position> positions, Map<Position, String> orgs) {
+        Map<String, List<String>> idsByOrg = new LinkedHashMap<>();
+        positions.forEach(position ->
+            idsByOrg.computeIfAbsent(orgs.get(position), x -> new ArrayList<>()).add(position.getId()));
+
+        Map<String, Request> requests = new HashMap<>();
+        idsByOrg.forEach((orgId, ids) -> {
+            Iterator<Request> values = hashOps.multiGet(getOrgKey(orgId), ids).iterator();
+            ids.forEach(id -> requests.put(id, values.next()));
+        });
+        return requests;
+    }
+
+    /**
+     * Request written by an instance still using the legacy hash is moved on first access. Legacy
+     * fields are prefixed with organization that is not known here, so the hash is scanned for
+     * fields ending with the id. Redis removes the hash with its last field, after migration
+     * a miss costs single EXISTS.
+     */
+    private Optional<Request> getLegacy(String key) {
+        if (!redisTemplate.hasKey(requestsKey)) {
+            return Optional.empty();
+        }
+        Optional<Map.Entry<String, Request>> entry;
+        ScanOptions options = ScanOptions.scanOptions()
+            .match("*:" + escapePattern(key))
+            .count(MIGRATION_BATCH_SIZE)
+            .build();
+        try (Cursor<Map.Entry<String, Request>> cursor = legacyRequests.scan(options)) {
+            entry = cursor.hasNext() ? Optional.of(cursor.next()) : Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        entry.ifPresent(e -> {
+            put(e.getValue());
+            legacyRequests.delete(e.getKey());
+        });
+        return entry.map(Map.Entry::getValue);
+    }
+
+    private static String escapePattern(String value) {
+        return value.replaceAll("([\\\\*?\\[\\]])", "\\\\$1");
+    }
+
+    private static Cursor<Map.Entry<String, Request>> scan(BoundHashOperations<String, String, Request> hash) {
+        return hash.scan(ScanOptions.scanOptions().count(MIGRATION_BATCH_SIZE).build());
+    }
+
+    private static Set<TypedTuple<String>> toTimelineEntries(Collection<Request> requests) {
+        Set<TypedTuple<String>> entries = new HashSet<>();
+        requests.forEach(request -> entries.add(
+            new DefaultTypedTuple<>(request.getId(), (double) RequestQuery.getCreationTime(request))));
+        return entries;
+    }
+
+    private String getOrgIndexKey() {
+        return requestsKey + "-org-index";
+    }
+
+    private String getOrgKey(String orgId) {
+        return requestsKey + ":" + orgId;
+    }
+
+    private String getTimelineKey(String orgId) {
+        return requestsKey + "-timeline:" + orgId;
+    }
+
+    private Map<String, Request> withOrgPrefixedKeys(String orgId, Map<String, Request> requests) {
+        Map<String, Request> result = new HashMap<>(requests.size());
+        requests.forEach((id, request) -> result.put(getOrgPrefixedKey(orgId, id), request));
+        return result;
     }
 }
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.cloud;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.trustedanalytics.das.store.RetryStore;
+import org.trustedanalytics.das.store.ScheduledRetry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Retries are kept in sorted set scored by due time, members are stage and request id. Retry is
+ * taken by the instance that manages to remove it, so instances sharing Redis don't take the
+ * same retry twice.
+ */
+public class RedisRetryStore implements RetryStore {
+
+    private static final String SEPARATOR = ":";
+
+    private final ZSetOperations<String, String> retries;
+
+    private final String key;
+
+    public RedisRetryStore(StringRedisTemplate template, String key) {
+        this.retries = template.opsForZSet();
+        this.key = key;
+    }
+
+    @Override
+    public void schedule(String stage, String requestId, long dueMillis) {
+        retries.add(key, stage + SEPARATOR + requestId, dueMillis);
+    }
+
+    @Override
+    public List<ScheduledRetry> takeDue(long nowMillis, int max) {
+        Set<String> members = retries.rangeByScore(key, 0, nowMillis, 0, max);
+        List<ScheduledRetry> taken = new ArrayList<>(members.size());
+        for (String member : members) {
+            Long removed = retries.remove(key, member);
+            if (removed != null && removed > 0) {
+                int separator = member.indexOf(SEPARATOR);
+                taken.add(new ScheduledRetry(member.substring(0, separator), member.substring(separator + 1)));
+            }
+        }
+        return taken;
+    }
+
+    @Override
+    public long size() {
+        Long size = retries.zCard(key);
+        return size == null ? 0 : size;
+    }
+}
@@ -15,33 +15,207 @@
  */
 package org.trustedanalytics.das.store.memory;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.springframework.stereotype.Repository;
 
 import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.QueueFullException;
 
 /**
  * Default simple implementation. For testing only. Ack doesn't check anything, always removes given
  * element from queue.
- *
+ * <p>
+ * Items offered to full queue are handled according to {@link OverflowPolicy}, rejected items are
+ * reported with {@link QueueFullException}.
  */
 @Repository
-public class BlockingMemoryMultiTopicRequestIdQueue implements BlockingRequestIdQueue {
+public class BlockingMemoryMultiTopicRequestIdQueue implements BlockingRequestIdQueue, Closeable {
+
+    static final int DEFAULT_CAPACITY = 10;
+
+    private final ArrayBlockingQueue<String> queue;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final long blockTimeoutMillis;
 
-    private final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<>(10);
+    private final SpillFile spillFile;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder spilled = new LongAdder();
 
     BlockingMemoryMultiTopicRequestIdQueue() {
+        this(DEFAULT_CAPACITY, OverflowPolicy.REJECT, 0, null);
+    }
+
+    /**
+     * @param blockTimeoutMillis how long offer waits for free space with BLOCK policy
+     * @param spillDirectory where items are written with SPILL policy
+     */
+    BlockingMemoryMultiTopicRequestIdQueue(int capacity, OverflowPolicy overflowPolicy,
+                                           long blockTimeoutMillis, Path spillDirectory) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        try {
+            this.spillFile = overflowPolicy == OverflowPolicy.SPILL ? new SpillFile(spillDirectory) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     @Override
     public void offer(String t) {
-        queue.offer(t);
+        if (!tryOffer(t, deadline())) {
+            throw new QueueFullException("Queue is full", Collections.singletonList(t));
+        }
+    }
+
+    /**
+     * Items that don't fit are rejected, rest of them is still added. With BLOCK policy all of
+     * them share single timeout.
+     */
+    @Override
+    public void offerAll(Collection<String> items) {
+        long deadline = deadline();
+        List<String> notAdded = new ArrayList<>();
+        for (String item : items) {
+            if (!tryOffer(item, deadline)) {
+                notAdded.add(item);
+            }
+        }
+        if (!notAdded.isEmpty()) {
+            throw new QueueFullException(
+                    String.format("Queue is full, %d of %d items rejected", notAdded.size(), items.size()), notAdded);
+        }
     }
 
     @Override
     public String take() throws InterruptedException {
-        return queue.take();
+        refill();
+        String item = queue.take();
+        refill();
+        return item;
+    }
+
+    @Override
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        refill();
+        String item = queue.poll(timeout, unit);
+        refill();
+        return item;
     }
 
+    @Override
+    public List<String> drainTo(int max, long timeout, TimeUnit unit) throws InterruptedException {
+        refill();
+        String first = queue.poll(timeout, unit);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        List<String> items = new ArrayList<>(max);
+        items.add(first);
+        queue.drainTo(items, max - 1);
+        refill();
+        return items;
+    }
+
+    @Override
+    public long size() {
+        return queue.size() + (spillFile == null ? 0 : spillFile.size());
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getSpilledCount() {
+        return spilled.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spillFile != null) {
+            spillFile.close();
+        }
+    }
+
+    private long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    }
+
+    private boolean tryOffer(String item, long deadline) {
+        boolean added;
+        switch (overflowPolicy) {
+            case BLOCK:
+                added = offerBlocking(item, deadline);
+                break;
+            case SPILL:
+                offerOrSpill(item);
+                added = true;
+                break;
+            default:
+                added = queue.offer(item);
+        }
+        if (!added) {
+            rejected.increment();
+        }
+        return added;
+    }
+
+    private boolean offerBlocking(String item, long deadline) {
+        try {
+            return queue.offer(item, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Items go to disk also while there are older items spilled, so that order is kept.
+     */
+    private void offerOrSpill(String item) {
+        synchronized (spillFile) {
+            if (spillFile.isEmpty() && queue.offer(item)) {
+                return;
+            }
+            try {
+                spillFile.append(item);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            spilled.increment();
+        }
+    }
+
+    /**
+     * Moves spilled items to memory while there is room for them.
+     */
+    private void refill() {
+        if (spillFile == null) {
+            return;
+        }
+        synchronized (spillFile) {
+            try {
+                while (!spillFile.isEmpty() && queue.remainingCapacity() > 0) {
+                    queue.offer(spillFile.poll());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 }
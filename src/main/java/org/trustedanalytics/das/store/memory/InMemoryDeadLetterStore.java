@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.memory;
+
+import org.trustedanalytics.das.store.DeadLetter;
+import org.trustedanalytics.das.store.DeadLetterStore;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+public class InMemoryDeadLetterStore implements DeadLetterStore {
+
+    private final Map<String, Map<String, DeadLetter>> stages = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(DeadLetter letter) {
+        stage(letter.getStage()).put(letter.getRequestId(), letter);
+    }
+
+    @Override
+    public List<DeadLetter> getAll(String stage, Collection<String> orgIds) {
+        return stage(stage).values().stream()
+                .filter(letter -> orgIds.contains(letter.getOrgUUID()))
+                .sorted(Comparator.comparingLong(DeadLetter::getTimestamp))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean remove(DeadLetter letter) {
+        return stage(letter.getStage()).remove(letter.getRequestId()) != null;
+    }
+
+    @Override
+    public long size(String stage) {
+        return stage(stage).size();
+    }
+
+    private Map<String, DeadLetter> stage(String stage) {
+        return stages.computeIfAbsent(stage, x -> new ConcurrentHashMap<>());
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.memory;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "queue.memory")
+public class InMemoryQueueProperties {
+
+    public enum Type {
+        /**
+         * Queue guarded by a lock, supports all overflow policies.
+         */
+        ARRAY,
+        /**
+         * Lock-free ring buffer, offer to full queue always blocks with timeout.
+         */
+        RING_BUFFER
+    }
+
+    @Getter @Setter
+    private Type type = Type.ARRAY;
+
+    @Getter @Setter
+    private int capacity = 1000;
+
+    @Getter @Setter
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    @Getter @Setter
+    private long blockTimeoutMs = 5000;
+
+    /**
+     * How ring buffer consumers wait for items and producers for free slots.
+     */
+    @Getter @Setter
+    private WaitStrategy waitStrategy = WaitStrategy.PARK;
+
+    @Getter @Setter
+    private String spillDirectory = System.getProperty("java.io.tmpdir");
+}
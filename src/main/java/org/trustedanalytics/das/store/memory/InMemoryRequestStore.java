@@ -18,35 +18,90 @@ package org.trustedanalytics.das.store.memory;
 import org.trustedanalytics.das.parser.Request;
 import org.trustedanalytics.das.store.RequestStore;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
 
+/**
+ * Requests are indexed by id, and ids by organization, so neither lookup scans whole store.
+ * Both indexes are updated under the lock of request id entry.
+ */
 public class InMemoryRequestStore implements RequestStore {
 
-    private final Map<String, Request> store = new HashMap<>();
+    private final ConcurrentMap<String, Request> store = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<String>> idsByOrg = new ConcurrentHashMap<>();
 
     @Override
     public void put(Request value) {
-        store.put(
-            this.getOrgPrefixedKey(value.getOrgUUID(), value.getId()),
-            value);
+        store.compute(value.getId(), (id, previous) -> {
+            if (previous != null) {
+                removeFromOrg(previous);
+            }
+            idsByOrg.compute(getOrgId(value), (orgId, ids) -> {
+                Set<String> orgIds = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+                orgIds.add(id);
+                return orgIds;
+            });
+            return value;
+        });
     }
 
     @Override
     public Optional<Request> get(String key) {
-        return filterByKey(store, key).values()
-            .stream()
-            .findFirst();
+        return Optional.ofNullable(store.get(key));
     }
 
     @Override
     public Map<String, Request> getAll(String orgId) {
-        return this.filterByOrgId(this.store, orgId);
+        String org = String.valueOf(orgId);
+        Set<String> ids = idsByOrg.getOrDefault(org, Collections.emptySet());
+        Map<String, Request> result = new HashMap<>(ids.size());
+        for (String id : ids) {
+            Request request = store.get(id);
+            if (request != null && org.equals(getOrgId(request))) {
+                result.put(this.getOrgPrefixedKey(orgId, id), request);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Iterates organization index, requests changed meanwhile may or may not be returned.
+     */
+    @Override
+    public Stream<Request> stream(String orgId) {
+        String org = String.valueOf(orgId);
+        return idsByOrg.getOrDefault(org, Collections.emptySet()).stream()
+                .map(store::get)
+                .filter(request -> request != null && org.equals(getOrgId(request)));
     }
 
     @Override
     public void delete(String key) {
-        store.remove(filterByKey(store, key).keySet().stream().findFirst().get());
+        store.compute(key, (id, previous) -> {
+            if (previous == null) {
+                throw new NoSuchElementException("No request with id: " + id);
+            }
+            removeFromOrg(previous);
+            return null;
+        });
+    }
+
+    private void removeFromOrg(Request request) {
+        idsByOrg.computeIfPresent(getOrgId(request), (orgId, ids) -> {
+            ids.remove(request.getId());
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private String getOrgId(Request request) {
+        return String.valueOf(request.getOrgUUID());
     }
 }
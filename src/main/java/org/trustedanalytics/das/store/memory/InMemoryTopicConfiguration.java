@@ -16,26 +16,69 @@
 package org.trustedanalytics.das.store.memory;
 
 import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 @Configuration
 @Profile("inmemory")
 public class InMemoryTopicConfiguration {
 
+    @Autowired
+    private InMemoryQueueProperties properties;
+
     @Bean
     public BlockingRequestIdQueue toRequestsParser() {
-        return new BlockingMemoryMultiTopicRequestIdQueue();
+        return newQueue();
     }
 
     @Bean
     public BlockingRequestIdQueue toDownloader() {
-        return new BlockingMemoryMultiTopicRequestIdQueue();
+        return newQueue();
     }
 
     @Bean
     public BlockingRequestIdQueue toMetadataParser() {
-        return new BlockingMemoryMultiTopicRequestIdQueue();
+        return newQueue();
+    }
+
+    @Bean
+    public PublicMetrics inMemoryQueueMetrics() {
+        return () -> {
+            Collection<Metric<?>> metrics = new ArrayList<>();
+            addMetrics(metrics, "toRequestsParser", toRequestsParser());
+            addMetrics(metrics, "toDownloader", toDownloader());
+            addMetrics(metrics, "toMetadataParser", toMetadataParser());
+            return metrics;
+        };
+    }
+
+    private BlockingRequestIdQueue newQueue() {
+        if (properties.getType() == InMemoryQueueProperties.Type.RING_BUFFER) {
+            return new RingBufferRequestIdQueue(properties.getCapacity(), properties.getWaitStrategy(),
+                    properties.getBlockTimeoutMs());
+        }
+        return new BlockingMemoryMultiTopicRequestIdQueue(properties.getCapacity(), properties.getOverflowPolicy(),
+                properties.getBlockTimeoutMs(), Paths.get(properties.getSpillDirectory()));
+    }
+
+    private static void addMetrics(Collection<Metric<?>> metrics, String name, BlockingRequestIdQueue queue) {
+        String prefix = "queue." + name + ".";
+        metrics.add(new Metric<>(prefix + "size", queue.size()));
+        if (queue instanceof RingBufferRequestIdQueue) {
+            metrics.add(new Metric<>(prefix + "rejected", ((RingBufferRequestIdQueue) queue).getRejectedCount()));
+        } else {
+            BlockingMemoryMultiTopicRequestIdQueue memoryQueue = (BlockingMemoryMultiTopicRequestIdQueue) queue;
+            metrics.add(new Metric<>(prefix + "rejected", memoryQueue.getRejectedCount()));
+            metrics.add(new Metric<>(prefix + "spilled", memoryQueue.getSpilledCount()));
+        }
     }
 }
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.memory;
+
+import com.google.common.base.Preconditions;
+import org.trustedanalytics.das.store.RetryStore;
+import org.trustedanalytics.das.store.ScheduledRetry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timer wheel. Time is divided into ticks, retry goes to the slot of the tick it is due
+ * at. Slot holds retries of every turn of the wheel, those of later turns stay there until their
+ * turn comes. Scheduling takes constant time, taking visits only slots of ticks passed since
+ * the previous take.
+ * <p>
+ * Retries are due with tick precision and are lost on restart.
+ */
+public class MemoryRetryStore implements RetryStore {
+
+    private static final long DEFAULT_TICK_MILLIS = 100;
+
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+
+    private final List<List<Entry>> wheel;
+
+    /**
+     * Retries found due but not taken yet because of the limit.
+     */
+    private final Deque<Entry> due = new ArrayDeque<>();
+
+    /**
+     * The last tick whose slot was visited.
+     */
+    private long currentTick;
+
+    private long size;
+
+    public MemoryRetryStore() {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    public MemoryRetryStore(long tickMillis, int wheelSize) {
+        Preconditions.checkArgument(tickMillis > 0, "Tick must be positive");
+        Preconditions.checkArgument(wheelSize > 0, "Wheel needs at least one slot");
+        this.tickMillis = tickMillis;
+        wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    @Override
+    public synchronized void schedule(String stage, String requestId, long dueMillis) {
+        // overdue retries go to the next slot visited
+        long tick = Math.max(dueMillis / tickMillis, currentTick + 1);
+        slot(tick).add(new Entry(tick, new ScheduledRetry(stage, requestId)));
+        size++;
+    }
+
+    @Override
+    public synchronized List<ScheduledRetry> takeDue(long nowMillis, int max) {
+        long nowTick = nowMillis / tickMillis;
+        if (nowTick - currentTick >= wheel.size()) {
+            // whole turn passed, every slot is visited once
+            wheel.forEach(slot -> collectDue(slot, nowTick));
+            currentTick = nowTick;
+        }
+        while (currentTick < nowTick && due.size() < max) {
+            currentTick++;
+            collectDue(slot(currentTick), currentTick);
+        }
+        List<ScheduledRetry> taken = new ArrayList<>(Math.min(max, due.size()));
+        while (taken.size() < max && !due.isEmpty()) {
+            taken.add(due.poll().retry);
+        }
+        size -= taken.size();
+        return taken;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    private void collectDue(List<Entry> slot, long tick) {
+        Iterator<Entry> entries = slot.iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.tick <= tick) {
+                due.add(entry);
+                entries.remove();
+            }
+        }
+    }
+
+    private List<Entry> slot(long tick) {
+        return wheel.get((int) Math.floorMod(tick, (long) wheel.size()));
+    }
+
+    private static class Entry {
+
+        private final long tick;
+
+        private final ScheduledRetry retry;
+
+        Entry(long tick, ScheduledRetry retry) {
+            this.tick = tick;
+            this.retry = retry;
+        }
+    }
+}
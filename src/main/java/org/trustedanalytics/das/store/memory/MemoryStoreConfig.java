@@ -15,7 +15,9 @@
  */
 package org.trustedanalytics.das.store.memory;
 
+import org.trustedanalytics.das.store.DeadLetterStore;
 import org.trustedanalytics.das.store.RequestStore;
+import org.trustedanalytics.das.store.RetryStore;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
@@ -27,4 +29,14 @@ public class MemoryStoreConfig {
     public RequestStore inMemoryRequestStore() {
         return new InMemoryRequestStore();
     }
+
+    @Bean
+    public RetryStore inMemoryRetryStore() {
+        return new MemoryRetryStore();
+    }
+
+    @Bean
+    public DeadLetterStore inMemoryDeadLetterStore() {
+        return new InMemoryDeadLetterStore();
+    }
 }
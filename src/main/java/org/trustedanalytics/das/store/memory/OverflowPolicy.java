@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.memory;
+
+/**
+ * What in-memory queue does with an item offered when it is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait for free space, reject the item when there is none within timeout.
+     */
+    BLOCK,
+    /**
+     * Reject the item immediately.
+     */
+    REJECT,
+    /**
+     * Write the item to disk, it is moved back to memory when consumers make room.
+     */
+    SPILL
+}
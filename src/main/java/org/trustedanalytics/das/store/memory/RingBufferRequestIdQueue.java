@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.memory;
+
+import com.google.common.base.Preconditions;
+import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.QueueFullException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded lock-free queue for many producers and many consumers, based on pre-allocated ring of
+ * slots. Every slot has a sequence number telling whether it is free for the producer at given
+ * position or filled for the consumer at given position, so producers and consumers only
+ * compete on their own position counter.
+ * <p>
+ * Threads wait for items or free slots according to {@link WaitStrategy}. Offer to full queue
+ * waits up to block timeout, then the item is rejected with {@link QueueFullException}.
+ */
+public class RingBufferRequestIdQueue implements BlockingRequestIdQueue {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<String> items;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong producerPosition = new AtomicLong();
+
+    private final AtomicLong consumerPosition = new AtomicLong();
+
+    private final WaitStrategy waitStrategy;
+
+    private final long blockTimeoutNanos;
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param capacity rounded up to the power of two
+     */
+    public RingBufferRequestIdQueue(int capacity, WaitStrategy waitStrategy, long blockTimeoutMillis) {
+        Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "Invalid capacity %s", capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.items = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    }
+
+    @Override
+    public void offer(String item) {
+        if (!offer(item, System.nanoTime() + blockTimeoutNanos)) {
+            throw new QueueFullException("Queue is full", Collections.singletonList(item));
+        }
+    }
+
+    /**
+     * Items that don't fit are rejected, rest of them is still added. All of them share single
+     * timeout.
+     */
+    @Override
+    public void offerAll(Collection<String> items) {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        List<String> notAdded = new ArrayList<>();
+        for (String item : items) {
+            if (!offer(item, deadline)) {
+                notAdded.add(item);
+            }
+        }
+        if (!notAdded.isEmpty()) {
+            throw new QueueFullException(
+                    String.format("Queue is full, %d of %d items rejected", notAdded.size(), items.size()), notAdded);
+        }
+    }
+
+    @Override
+    public String take() throws InterruptedException {
+        while (true) {
+            String item = poll();
+            if (item != null) {
+                return item;
+            }
+            idle();
+        }
+    }
+
+    @Override
+    public List<String> drainTo(int max, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        String first = poll();
+        while (first == null) {
+            if (System.nanoTime() >= deadline) {
+                return Collections.emptyList();
+            }
+            idle();
+            first = poll();
+        }
+        List<String> drained = new ArrayList<>(max);
+        drained.add(first);
+        String next;
+        while (drained.size() < max && (next = poll()) != null) {
+            drained.add(next);
+        }
+        return drained;
+    }
+
+    @Override
+    public long size() {
+        return Math.max(0, producerPosition.get() - consumerPosition.get());
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return false when there was no free slot before deadline
+     */
+    private boolean offer(String item, long deadline) {
+        Preconditions.checkNotNull(item);
+        while (!tryOffer(item)) {
+            if (System.nanoTime() >= deadline || Thread.currentThread().isInterrupted()) {
+                rejected.increment();
+                return false;
+            }
+            waitStrategy.idle();
+        }
+        return true;
+    }
+
+    private boolean tryOffer(String item) {
+        long position = producerPosition.get();
+        while (true) {
+            int index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (producerPosition.compareAndSet(position, position + 1)) {
+                    items.lazySet(index, item);
+                    // publishes the item to the consumer at this position
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = producerPosition.get();
+            } else if (available < 0) {
+                // slot still holds item from the previous round
+                return false;
+            } else {
+                position = producerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest item, null if queue is empty
+     */
+    String poll() {
+        long position = consumerPosition.get();
+        while (true) {
+            int index = (int) position & mask;
+            long filled = sequences.get(index) - (position + 1);
+            if (filled == 0) {
+                if (consumerPosition.compareAndSet(position, position + 1)) {
+                    String item = items.get(index);
+                    items.lazySet(index, null);
+                    // frees the slot for the producer one round later
+                    sequences.lazySet(index, position + mask + 1);
+                    return item;
+                }
+                position = consumerPosition.get();
+            } else if (filled < 0) {
+                return null;
+            } else {
+                position = consumerPosition.get();
+            }
+        }
+    }
+
+    private void idle() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        waitStrategy.idle();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.memory;
+
+import com.google.common.base.Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Queue items kept on disk, one per line, read back in order they were written. File is
+ * truncated whenever all items were read, it doesn't survive restart.
+ */
+class SpillFile implements Closeable {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final Path path;
+
+    private final RandomAccessFile file;
+
+    private long readPosition;
+
+    private long writePosition;
+
+    private long size;
+
+    SpillFile(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        path = Files.createTempFile(directory, "das-queue-", ".spill");
+        path.toFile().deleteOnExit();
+        file = new RandomAccessFile(path.toFile(), "rw");
+    }
+
+    synchronized void append(String item) throws IOException {
+        Preconditions.checkArgument(item.indexOf('\n') < 0, "Item with new line can't be spilled");
+        byte[] bytes = (item + '\n').getBytes(StandardCharsets.UTF_8);
+        file.seek(writePosition);
+        file.write(bytes);
+        writePosition += bytes.length;
+        size++;
+    }
+
+    /**
+     * @return the oldest item, null if there are none
+     */
+    synchronized String poll() throws IOException {
+        if (size == 0) {
+            return null;
+        }
+        String item = readItem();
+        size--;
+        if (size == 0) {
+            file.setLength(0);
+            readPosition = 0;
+            writePosition = 0;
+        }
+        return item;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    private String readItem() throws IOException {
+        ByteArrayOutputStream item = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        file.seek(readPosition);
+        while (true) {
+            int read = file.read(buffer);
+            if (read < 0) {
+                throw new EOFException("Spill file " + path + " ends in the middle of item");
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    item.write(buffer, 0, i);
+                    readPosition += item.size() + 1;
+                    return new String(item.toByteArray(), StandardCharsets.UTF_8);
+                }
+            }
+            item.write(buffer, 0, read);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trustedanalytics.das.dataflow.QueueKeyStrategy;
+import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.DeadLetter;
+import org.trustedanalytics.das.store.DeadLetterStore;
+import org.trustedanalytics.das.store.RequestStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * Puts dead requests back to queues of stages they failed in, in the state they failed in and
+ * with attempts counted anew. All replays share the rate limit, so that they don't swamp
+ * subservices however many of them run at once.
+ */
+public class DeadLetterReplayer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterReplayer.class);
+
+    private final DeadLetterStore deadLetters;
+
+    private final RequestStore requestStore;
+
+    private final Map<String, BlockingRequestIdQueue> queues;
+
+    private final RateLimiter rateLimiter;
+
+    private final QueueKeyStrategy keyStrategy;
+
+    /**
+     * @param queues queues of stages by stage name
+     * @param requestsPerSecond rate of replayed requests
+     * @param keyStrategy key requests are queued with
+     */
+    public DeadLetterReplayer(DeadLetterStore deadLetters, RequestStore requestStore,
+                              Map<String, BlockingRequestIdQueue> queues, double requestsPerSecond,
+                              QueueKeyStrategy keyStrategy) {
+        this.deadLetters = deadLetters;
+        this.requestStore = requestStore;
+        this.queues = queues;
+        this.rateLimiter = RateLimiter.create(requestsPerSecond);
+        this.keyStrategy = keyStrategy;
+    }
+
+    /**
+     * @throws NoSuchElementException if there is no such stage
+     */
+    public List<DeadLetter> getAll(String stage, Collection<String> orgIds) {
+        checkStage(stage);
+        return deadLetters.getAll(stage, orgIds);
+    }
+
+    /**
+     * Replays the oldest dead letters of given organizations. Every dead letter is removed before
+     * its request is queued, so that concurrent replays don't queue it twice; it is put back if
+     * queueing fails. Dead letters of deleted requests are dropped.
+     * @return ids of replayed requests
+     * @throws NoSuchElementException if there is no such stage
+     */
+    public List<String> replay(String stage, Collection<String> orgIds, int limit) {
+        BlockingRequestIdQueue queue = checkStage(stage);
+        List<String> replayed = new ArrayList<>();
+        for (DeadLetter letter : getAll(stage, orgIds)) {
+            if (replayed.size() >= limit) {
+                break;
+            }
+            if (!deadLetters.remove(letter)) {
+                // taken by other replay
+                continue;
+            }
+            Optional<Request> request = requestStore.get(letter.getRequestId());
+            if (!request.isPresent()) {
+                LOGGER.info("Dropping dead letter of deleted request {}", letter.getRequestId());
+                continue;
+            }
+            rateLimiter.acquire();
+            try {
+                requestStore.put(request.get().changeState(letter.getState()));
+                queue.offer(letter.getRequestId(), keyStrategy.key(request.get()));
+            } catch (RuntimeException e) {
+                deadLetters.add(letter);
+                throw e;
+            }
+            replayed.add(letter.getRequestId());
+        }
+        LOGGER.info("Replayed {} requests in {}", replayed.size(), stage);
+        return replayed;
+    }
+
+    public long size(String stage) {
+        return deadLetters.size(stage);
+    }
+
+    public Collection<String> getStages() {
+        return queues.keySet();
+    }
+
+    private BlockingRequestIdQueue checkStage(String stage) {
+        BlockingRequestIdQueue queue = queues.get(stage);
+        if (queue == null) {
+            throw new NoSuchElementException("There is no stage " + stage);
+        }
+        return queue;
+    }
+}
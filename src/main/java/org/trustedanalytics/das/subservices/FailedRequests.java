@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.store.DeadLetter;
+import org.trustedanalytics.das.store.DeadLetterStore;
+import org.trustedanalytics.das.store.RequestStore;
+
+import static org.trustedanalytics.das.parser.State.ERROR;
+
+/**
+ * Records failure of request in a stage. Request is scheduled for retry as long as retry policy
+ * allows it, then it is left in error state and dead letter tells why it failed.
+ */
+public class FailedRequests {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FailedRequests.class);
+
+    private final RequestStore requestStore;
+
+    private final RetryPolicy retryPolicy;
+
+    private final RetryScheduler retryScheduler;
+
+    private final DeadLetterStore deadLetters;
+
+    /**
+     * @param retryScheduler null when requests are not retried
+     * @param deadLetters null when dead letters are not kept
+     */
+    public FailedRequests(RequestStore requestStore, RetryPolicy retryPolicy, RetryScheduler retryScheduler,
+                          DeadLetterStore deadLetters) {
+        this.requestStore = requestStore;
+        this.retryPolicy = retryPolicy;
+        this.retryScheduler = retryScheduler;
+        this.deadLetters = deadLetters;
+    }
+
+    /**
+     * Failed requests go to error state at once.
+     */
+    public static FailedRequests errorOnly(RequestStore requestStore) {
+        return new FailedRequests(requestStore, RetryPolicy.NONE, null, null);
+    }
+
+    /**
+     * @param request request in state it failed in
+     * @return false when neither retry nor error state could be stored
+     */
+    public boolean record(String stage, Request request, Throwable e) {
+        if (retryScheduler != null && retryPolicy.shouldRetry(request, e)) {
+            try {
+                Request retried = request.nextAttempt();
+                long delay = retryPolicy.delayMillis(retried.getAttempts());
+                LOGGER.warn("Error processing request: " + request + ", retry in " + delay + " ms", e);
+                requestStore.put(retried);
+                retryScheduler.schedule(stage, retried, delay);
+                return true;
+            } catch (RuntimeException retryError) {
+                LOGGER.error("Failed to schedule retry of request: " + request, retryError);
+            }
+        }
+        LOGGER.warn("Error processing request: " + request, e);
+        try {
+            requestStore.put(request.changeState(ERROR));
+        } catch (RuntimeException storeError) {
+            LOGGER.error("Failed to store error state of request: " + request, storeError);
+            return false;
+        }
+        if (deadLetters != null) {
+            try {
+                deadLetters.add(DeadLetter.of(stage, request, e));
+            } catch (RuntimeException storeError) {
+                LOGGER.error("Failed to store dead letter of request: " + request, storeError);
+            }
+        }
+        return true;
+    }
+}
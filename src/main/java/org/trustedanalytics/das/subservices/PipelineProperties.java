@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Component
+@ConfigurationProperties(prefix = "pipeline")
+public class PipelineProperties {
+    @Getter @Setter
+    private Map<String, StageProperties> stages = new HashMap<>();
+
+    @Getter @Setter
+    private AutoscaleProperties autoscale = new AutoscaleProperties();
+
+    /**
+     * How often requests due for retry are put back to their queues.
+     */
+    @Getter @Setter
+    private long retryPollMs = 500;
+
+    /**
+     * Dead requests put back to queues per second, shared by all replays.
+     */
+    @Getter @Setter
+    private double replayRate = 10;
+
+    /**
+     * Requests carried in queue messages longer than that are read from store again.
+     */
+    @Getter @Setter
+    private long snapshotMaxAgeMs = 60000;
+
+    @Getter @Setter
+    private FairnessProperties fairness = new FairnessProperties();
+
+    public StageProperties getStage(String name) {
+        return stages.computeIfAbsent(name, x -> new StageProperties());
+    }
+
+    public enum Mode {
+        /**
+         * Every worker thread processes its requests.
+         */
+        THREADS,
+        /**
+         * Single worker pulls requests and runs each of them as a separate task, on a virtual
+         * thread when the runtime supports them. The worker reads every stream of the stage
+         * topic in turn.
+         */
+        TASKS
+    }
+
+    public static class StageProperties {
+        @Getter @Setter
+        private Mode mode = Mode.THREADS;
+
+        /**
+         * Number of threads pulling requests from the stage queue.
+         */
+        @Getter @Setter
+        private int workers = 1;
+
+        /**
+         * Bounds for the autoscaler, stage is scaled only when maxWorkers is above minWorkers.
+         * Both default to the initial number of workers.
+         */
+        @Setter
+        private Integer minWorkers;
+
+        @Setter
+        private Integer maxWorkers;
+
+        /**
+         * Requests of the stage processed at once in TASKS mode.
+         */
+        @Getter @Setter
+        private int concurrency = 64;
+
+        /**
+         * Calls to the subservice one worker keeps running at once; more than one switches the
+         * stage to the non-blocking client.
+         */
+        @Getter @Setter
+        private int inFlight = 1;
+
+        /**
+         * Request ids one worker takes from queue at once.
+         */
+        @Getter @Setter
+        private int batchSize = 1;
+
+        @Getter @Setter
+        private RetryProperties retry = new RetryProperties();
+
+        public int getMinWorkers() {
+            return minWorkers != null ? minWorkers : workers;
+        }
+
+        public int getMaxWorkers() {
+            return maxWorkers != null ? maxWorkers : workers;
+        }
+    }
+
+    public static class RetryProperties {
+        /**
+         * Attempts to process request in the stage, including the first one; 1 turns retries off.
+         */
+        @Getter @Setter
+        private int maxAttempts = 1;
+
+        @Getter @Setter
+        private long initialDelayMs = 1000;
+
+        @Getter @Setter
+        private long maxDelayMs = 300000;
+
+        @Getter @Setter
+        private double multiplier = 2;
+
+        /**
+         * Random fraction of every delay.
+         */
+        @Getter @Setter
+        private double jitter = 0.5;
+    }
+
+    public static class FairnessProperties {
+        /**
+         * Whether stages take requests of organizations in turns instead of in queue order.
+         */
+        @Getter @Setter
+        private boolean enabled = false;
+
+        /**
+         * Messages taken ahead from every stage queue to pick the next request from.
+         */
+        @Getter @Setter
+        private int bufferSize = 1000;
+
+        /**
+         * Requests per turn of organizations missing in weights.
+         */
+        @Getter @Setter
+        private int defaultWeight = 1;
+
+        /**
+         * Requests per turn by organization id.
+         */
+        @Getter @Setter
+        private Map<String, Integer> weights = new HashMap<>();
+    }
+
+    public static class AutoscaleProperties {
+        @Getter @Setter
+        private long intervalSeconds = 15;
+
+        /**
+         * Stage grows when its queue would take longer than that to drain at the latency
+         * observed in the last interval.
+         */
+        @Getter @Setter
+        private long targetDrainSeconds = 60;
+
+        /**
+         * Utilization (fraction of time workers spend processing) above which a stage grows
+         * when size of its queue is unknown.
+         */
+        @Getter @Setter
+        private double scaleUpUtilization = 0.8;
+
+        /**
+         * Utilization below which a stage with no backlog shrinks.
+         */
+        @Getter @Setter
+        private double scaleDownUtilization = 0.3;
+    }
+}
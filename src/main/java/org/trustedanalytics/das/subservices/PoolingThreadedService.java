@@ -16,69 +16,415 @@
 package org.trustedanalytics.das.subservices;
 
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.trustedanalytics.das.parser.Request;
 import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.RequestMessage;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.trustedanalytics.das.store.RequestStore;
 
-import static org.trustedanalytics.das.parser.State.ERROR;
-
 /**
  * Executes given procedure for items pulled from queue. It uses single thread.
  * <p>
+ * Asynchronous procedure may keep several requests in flight, next item is pulled only when
+ * there are less of them than the limit.
+ * <p>
+ * Items can be pulled in batches, requests of whole batch are then read from store at once.
+ * Requests carried in queue messages are used without reading the store, unless they are older
+ * than snapshotMaxAge. The store is still asked whether they exist, so that requests deleted
+ * meanwhile are skipped rather than written back.
+ * <p>
+ * Items are acknowledged to queue when their processing completes, so items of requests in flight
+ * are delivered again if the service dies. Outcome of calls completing on other threads (e.g. I/O
+ * threads of asynchronous HTTP client) is recorded on a few threads of the service, as it blocks
+ * on store and queue.
+ * <p>
+ * Failed requests are retried with backoff as long as retry policy allows, then they are left
+ * in error state with dead letter.
+ * <p>
  * It could (and was before) generic on type data collected from queue
  */
 public class PoolingThreadedService extends AbstractExecutionThreadService {
 
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Waiting for messages is limited, so stopped worker notices it even when queue is empty.
+     */
+    private static final long TAKE_WAIT_MILLIS = 1000;
+
+    private static final int COMPLETION_THREADS = 4;
+
+    private static final long DEFAULT_SNAPSHOT_MAX_AGE_MILLIS = 60000;
+
     private BlockingRequestIdQueue queue;
-    private Consumer<Request> handler;
+    private Function<Request, CompletableFuture<?>> handler;
     private String name;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final int batchSize;
+    private final long snapshotMaxAgeMillis;
+    private final StageMetrics metrics;
+    private final FailedRequests failures;
+    private final ExecutorService completions;
     private static final Logger LOGGER = LoggerFactory.getLogger(PoolingThreadedService.class);
 
     private RequestStore requestStore;
 
-    public PoolingThreadedService(BlockingRequestIdQueue queue, Consumer<Request> handler,
-                                  String name, RequestStore requestStore) {
+    private final RequestMessage.Codec messages;
+
+    public static class PoolingThreadedServiceBuilder {
+
+        private final BlockingRequestIdQueue queue;
+
+        private final Function<Request, CompletableFuture<?>> handler;
+
+        private final String name;
+
+        private final RequestStore requestStore;
+
+        private final RequestMessage.Codec messages;
+
+        private int maxInFlight = 1;
+
+        private int batchSize = 1;
+
+        private long snapshotMaxAgeMillis = DEFAULT_SNAPSHOT_MAX_AGE_MILLIS;
+
+        private StageMetrics metrics;
+
+        private FailedRequests failures;
+
+        /**
+         * @param handler procedure returning future completed when the request is processed,
+         * see {@link #blocking(Consumer)} for procedures that complete on the calling thread
+         * @param messages decodes messages taken from queue
+         */
+        public PoolingThreadedServiceBuilder(BlockingRequestIdQueue queue,
+                                             Function<Request, CompletableFuture<?>> handler,
+                                             String name, RequestStore requestStore,
+                                             RequestMessage.Codec messages) {
+            this.queue = queue;
+            this.handler = handler;
+            this.name = name;
+            this.requestStore = requestStore;
+            this.messages = messages;
+        }
+
+        public PoolingThreadedServiceBuilder withMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * @param batchSize ids taken from queue at once, more than one reads their requests with
+         * single store call
+         */
+        public PoolingThreadedServiceBuilder withBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param snapshotMaxAgeMillis requests carried in older messages are read from store, as
+         * they may have moved on since
+         */
+        public PoolingThreadedServiceBuilder withSnapshotMaxAge(long snapshotMaxAgeMillis) {
+            this.snapshotMaxAgeMillis = snapshotMaxAgeMillis;
+            return this;
+        }
+
+        /**
+         * @param metrics processing counters, shared with other workers of the same stage
+         */
+        public PoolingThreadedServiceBuilder withMetrics(StageMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param failures records failed requests, name of service is the stage name; by default
+         * failed requests are only left in error state
+         */
+        public PoolingThreadedServiceBuilder withFailures(FailedRequests failures) {
+            this.failures = failures;
+            return this;
+        }
+
+        public PoolingThreadedService build() {
+            return new PoolingThreadedService(queue, handler, maxInFlight, batchSize, snapshotMaxAgeMillis, name,
+                    requestStore, messages, metrics == null ? new StageMetrics() : metrics,
+                    failures == null ? FailedRequests.errorOnly(requestStore) : failures);
+        }
+    }
+
+    private PoolingThreadedService(BlockingRequestIdQueue queue, Function<Request, CompletableFuture<?>> handler,
+                                   int maxInFlight, int batchSize, long snapshotMaxAgeMillis, String name,
+                                   RequestStore requestStore, RequestMessage.Codec messages, StageMetrics metrics,
+                                   FailedRequests failures) {
         this.queue = queue;
         this.handler = handler;
         this.name = name;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.batchSize = batchSize;
+        this.snapshotMaxAgeMillis = snapshotMaxAgeMillis;
         this.requestStore = requestStore;
+        this.messages = messages;
+        this.metrics = metrics;
+        this.failures = failures;
+        this.completions = maxInFlight > 1 ? newCompletionExecutor(name, maxInFlight) : null;
+    }
+
+    /**
+     * Every pending completion holds a permit of inFlight, so queue of maxInFlight never
+     * overflows.
+     */
+    private static ExecutorService newCompletionExecutor(String name, int maxInFlight) {
+        int threads = Math.min(maxInFlight, COMPLETION_THREADS);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxInFlight),
+                new ThreadFactoryBuilder().setNameFormat(name + "-completion-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Adapts procedure that processes request on the calling thread.
+     */
+    public static Function<Request, CompletableFuture<?>> blocking(Consumer<Request> handler) {
+        return request -> {
+            handler.accept(request);
+            return CompletableFuture.completedFuture(null);
+        };
     }
 
     @Override
     protected void run() throws Exception {
         while (isRunning()) {
             LOGGER.info("Heartbeat from {}", serviceName());
-            Optional
-                    .ofNullable(queue.take())
-                    .flatMap(requestId -> {
-                        LOGGER.info("Request id: {}", requestId);
-                        final Optional<Request> request = requestStore.get(requestId);
-                        LOGGER.info("Redis id: {}", request);
-                        if (! request.isPresent()) {
-                            LOGGER.warn("Request not found in redis database");
-                        }
-                        return request;
-                    })
-                    .ifPresent(request -> {
-                            try {
-                                LOGGER.info("Processing request: " + request);
-                                handler.accept(request);
-                            } catch (Exception e) {
-                                LOGGER.warn("Error processing request: " + request, e);
-                                requestStore.put(request.changeState(ERROR));
-                            }
-                        });
+            inFlight.acquire();
+            boolean dispatched = false;
+            List<Delivery> deliveries = Collections.emptyList();
+            int next = 0;
+            try {
+                deliveries = batchSize > 1 ? takeBatch() : takeSingle();
+                for (; next < deliveries.size() && isRunning(); next++) {
+                    // permit acquired before taking is used by the first request of batch
+                    if (dispatched) {
+                        inFlight.acquire();
+                    }
+                    process(deliveries.get(next));
+                    dispatched = true;
+                }
+            } finally {
+                if (!dispatched) {
+                    inFlight.release();
+                }
+                // interrupted or stopped before dispatching them, they are delivered again
+                deliveries.subList(next, deliveries.size()).forEach(delivery -> nack(delivery.message));
+            }
+        }
+    }
+
+    private List<Delivery> takeSingle() throws InterruptedException {
+        String taken = queue.poll(TAKE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (taken == null) {
+            return Collections.emptyList();
+        }
+        Optional<RequestMessage> message = decode(taken);
+        if (!message.isPresent()) {
+            queue.ack(taken);
+            return Collections.emptyList();
+        }
+        String id = message.get().getId();
+        LOGGER.info("Request id: {}", id);
+        Optional<Request> request = freshSnapshot(message.get(), System.currentTimeMillis());
+        if (request.isPresent()) {
+            if (!readOrReturn(Collections.singletonList(taken),
+                    () -> requestStore.existing(Collections.singletonList(id))).contains(id)) {
+                request = Optional.empty();
+            }
+        } else {
+            request = readOrReturn(Collections.singletonList(taken), () -> requestStore.get(id));
+            LOGGER.info("Redis id: {}", request);
+        }
+        if (!request.isPresent()) {
+            LOGGER.warn("Request not found in redis database");
+            queue.ack(taken);
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new Delivery(taken, request.get()));
+    }
+
+    /**
+     * Takes up to batchSize messages. Requests not carried in them are read with single store
+     * call, existence of the carried ones is checked with another one.
+     */
+    private List<Delivery> takeBatch() throws InterruptedException {
+        List<String> taken = queue.drainTo(batchSize, TAKE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (taken.isEmpty()) {
+            return Collections.emptyList();
         }
+        List<String> items = new ArrayList<>(taken.size());
+        List<RequestMessage> messages = new ArrayList<>(taken.size());
+        for (String item : taken) {
+            Optional<RequestMessage> message = decode(item);
+            if (message.isPresent()) {
+                items.add(item);
+                messages.add(message.get());
+            } else {
+                queue.ack(item);
+            }
+        }
+        long now = System.currentTimeMillis();
+        List<String> carried = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (RequestMessage message : messages) {
+            (freshSnapshot(message, now).isPresent() ? carried : missing).add(message.getId());
+        }
+        LOGGER.info("Took {} requests, {} to read from store", messages.size(), missing.size());
+        Map<String, Request> stored = missing.isEmpty()
+                ? Collections.emptyMap()
+                : readOrReturn(items, () -> requestStore.multiGet(missing));
+        Set<String> existing = carried.isEmpty()
+                ? Collections.emptySet()
+                : readOrReturn(items, () -> requestStore.existing(carried));
+        List<Delivery> deliveries = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            RequestMessage message = messages.get(i);
+            Request request = freshSnapshot(message, now)
+                    .filter(snapshot -> existing.contains(message.getId()))
+                    .orElseGet(() -> stored.get(message.getId()));
+            if (request == null) {
+                LOGGER.warn("Request {} not found in redis database", message.getId());
+                queue.ack(items.get(i));
+            } else {
+                deliveries.add(new Delivery(items.get(i), request));
+            }
+        }
+        return deliveries;
+    }
+
+    /**
+     * Snapshot taken long ago is not used, request could have been re-queued or replayed since.
+     */
+    private Optional<Request> freshSnapshot(RequestMessage message, long now) {
+        return message.getSnapshot().filter(snapshot -> now - message.getTimestamp() <= snapshotMaxAgeMillis);
+    }
+
+    /**
+     * Reads requests of taken items, items are returned to queue when store fails.
+     */
+    private <T> T readOrReturn(Collection<String> items, Supplier<T> read) {
+        try {
+            return read.get();
+        } catch (RuntimeException e) {
+            items.forEach(this::nack);
+            throw e;
+        }
+    }
+
+    private Optional<RequestMessage> decode(String message) {
+        try {
+            return Optional.of(messages.decode(message));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Skipping queue message", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Item is acknowledged once outcome of processing is recorded, failed request is scheduled
+     * for retry or left in error state. If that can't be recorded, item is delivered again.
+     */
+    private void process(Delivery delivery) {
+        Request request = delivery.request;
+        CompletableFuture<?> result;
+        long start = System.nanoTime();
+        try {
+            LOGGER.info("Processing request: " + request);
+            result = handler.apply(request);
+        } catch (Exception e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        BiConsumer<Object, Throwable> complete = (value, e) -> {
+            metrics.recordProcessed(System.nanoTime() - start);
+            if (e == null || failures.record(name, request, e)) {
+                queue.ack(delivery.message);
+            } else {
+                nack(delivery.message);
+            }
+            inFlight.release();
+        };
+        if (completions == null || result.isDone()) {
+            result.whenComplete(complete);
+        } else {
+            result.whenCompleteAsync(complete, completions);
+        }
+    }
+
+    private void nack(String message) {
+        try {
+            queue.nack(message);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to return message to queue: " + message, e);
+        }
+    }
+
+    /**
+     * Waits for calls still in flight, then releases what queue keeps for the worker thread.
+     */
+    @Override
+    protected void shutDown() throws Exception {
+        if (!inFlight.tryAcquire(maxInFlight, SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            LOGGER.warn("{} stopped with requests still in flight", serviceName());
+        }
+        if (completions != null) {
+            completions.shutdown();
+        }
+        queue.release();
     }
 
     @Override
     protected String serviceName() {
         return "QueuePoolingService(" + name + ")";
     }
+
+    /**
+     * Request together with queue message it was taken with.
+     */
+    private static class Delivery {
+
+        private final String message;
+
+        private final Request request;
+
+        Delivery(String message, Request request) {
+            this.message = message;
+            this.request = request;
+        }
+    }
 }
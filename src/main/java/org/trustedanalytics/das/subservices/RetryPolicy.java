@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import com.google.common.base.Preconditions;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.trustedanalytics.das.parser.Request;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter. Delay before n-th retry is initialDelay * multiplier^(n-1),
+ * capped at maxDelay. Jitter is the random fraction of delay, so that requests failed together
+ * are not retried together.
+ * <p>
+ * Requests rejected by subservice as invalid (4xx other than 408 and 429) are not retried.
+ */
+public class RetryPolicy {
+
+    /**
+     * Single attempt, failed request goes to error state at once.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 1, 0);
+
+    private final int maxAttempts;
+
+    private final long initialDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final double multiplier;
+
+    private final double jitter;
+
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, double multiplier,
+                       double jitter) {
+        Preconditions.checkArgument(maxAttempts > 0, "At least one attempt is needed");
+        Preconditions.checkArgument(multiplier >= 1, "Multiplier can't shorten delays");
+        Preconditions.checkArgument(jitter >= 0 && jitter <= 1, "Jitter is a fraction of delay");
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param failed request in state it failed in, with attempts failed before
+     */
+    public boolean shouldRetry(Request failed, Throwable error) {
+        return failed.getAttempts() + 1 < maxAttempts && isRetryable(error);
+    }
+
+    /**
+     * @param attempt number of retry, starting with 1
+     */
+    public long delayMillis(int attempt) {
+        return delayMillis(attempt, ThreadLocalRandom.current().nextDouble());
+    }
+
+    long delayMillis(int attempt, double random) {
+        double delay = Math.min(maxDelayMillis, initialDelayMillis * Math.pow(multiplier, attempt - 1));
+        return (long) (delay * (1 - jitter + jitter * random));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof HttpClientErrorException) {
+            HttpStatus status = ((HttpClientErrorException) cause).getStatusCode();
+            return status == HttpStatus.TOO_MANY_REQUESTS || status == HttpStatus.REQUEST_TIMEOUT;
+        }
+        return true;
+    }
+}
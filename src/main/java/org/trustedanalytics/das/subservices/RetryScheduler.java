@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.RetryStore;
+import org.trustedanalytics.das.store.ScheduledRetry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts failed requests back to queues of their stages once their backoff passes. Requests wait
+ * in retry store, with Redis store they survive restart and are shared by instances.
+ */
+public class RetryScheduler extends AbstractScheduledService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryScheduler.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private final RetryStore store;
+
+    private final Map<String, BlockingRequestIdQueue> queues;
+
+    private final long pollMillis;
+
+    /**
+     * @param queues queues of stages by stage name
+     * @param pollMillis how often due retries are looked for
+     */
+    public RetryScheduler(RetryStore store, Map<String, BlockingRequestIdQueue> queues, long pollMillis) {
+        this.store = store;
+        this.queues = queues;
+        this.pollMillis = pollMillis;
+    }
+
+    public void schedule(String stage, Request request, long delayMillis) {
+        store.schedule(stage, request.getId(), System.currentTimeMillis() + delayMillis);
+    }
+
+    public long size() {
+        return store.size();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            List<ScheduledRetry> due;
+            do {
+                due = store.takeDue(System.currentTimeMillis(), BATCH_SIZE);
+                due.forEach(this::enqueue);
+            } while (due.size() == BATCH_SIZE && isRunning());
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to take due retries", e);
+        }
+    }
+
+    private void enqueue(ScheduledRetry retry) {
+        BlockingRequestIdQueue queue = queues.get(retry.getStage());
+        if (queue == null) {
+            LOGGER.warn("Dropping retry of request {}, there is no stage {}", retry.getRequestId(), retry.getStage());
+            return;
+        }
+        try {
+            LOGGER.info("Retrying request {} in {}", retry.getRequestId(), retry.getStage());
+            queue.offer(retry.getRequestId());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to enqueue retry of request " + retry.getRequestId() + ", postponed", e);
+            store.schedule(retry.getStage(), retry.getRequestId(), System.currentTimeMillis() + pollMillis);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected String serviceName() {
+        return "RetryScheduler";
+    }
+}
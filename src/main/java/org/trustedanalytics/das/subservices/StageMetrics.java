@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Processing counters shared by all workers of one pipeline stage.
+ */
+public class StageMetrics {
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder processingNanos = new LongAdder();
+
+    public void recordProcessed(long nanos) {
+        processed.increment();
+        processingNanos.add(nanos);
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getProcessingNanos() {
+        return processingNanos.sum();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(System.nanoTime(), getProcessed(), getProcessingNanos());
+    }
+
+    /**
+     * Counters at given moment, difference of two snapshots describes the period between them.
+     */
+    public static class Snapshot {
+        private final long timeNanos;
+        private final long processed;
+        private final long processingNanos;
+
+        Snapshot(long timeNanos, long processed, long processingNanos) {
+            this.timeNanos = timeNanos;
+            this.processed = processed;
+            this.processingNanos = processingNanos;
+        }
+
+        /**
+         * @return average processing time of requests finished since earlier snapshot,
+         * 0 when there were none
+         */
+        public long averageLatencyMillis(Snapshot earlier) {
+            long count = processed - earlier.processed;
+            if (count <= 0) {
+                return 0;
+            }
+            return TimeUnit.NANOSECONDS.toMillis((processingNanos - earlier.processingNanos) / count);
+        }
+
+        /**
+         * @param capacity number of requests that could be processed at once
+         * @return fraction of capacity spent on processing since earlier snapshot
+         */
+        public double utilization(Snapshot earlier, int capacity) {
+            long elapsed = timeNanos - earlier.timeNanos;
+            if (elapsed <= 0 || capacity <= 0) {
+                return 0;
+            }
+            return (double) (processingNanos - earlier.processingNanos) / elapsed / capacity;
+        }
+    }
+}
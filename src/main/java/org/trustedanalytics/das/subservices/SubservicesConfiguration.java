@@ -17,33 +17,61 @@ package org.trustedanalytics.das.subservices;
 
 import org.trustedanalytics.cloud.auth.AuthTokenRetriever;
 import org.trustedanalytics.cloud.auth.OAuth2TokenRetriever;
+import org.trustedanalytics.das.dataflow.QueueKeyStrategy;
 import org.trustedanalytics.das.parser.Request;
 import org.trustedanalytics.das.parser.RequestParsingService;
 import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.subservices.PipelineProperties.StageProperties;
+import org.trustedanalytics.das.subservices.PoolingThreadedService.PoolingThreadedServiceBuilder;
+import org.trustedanalytics.das.store.DeadLetterStore;
+import org.trustedanalytics.das.store.FairRequestIdQueue;
+import org.trustedanalytics.das.store.RequestMessage;
 import org.trustedanalytics.das.store.RequestStore;
+import org.trustedanalytics.das.store.RetryStore;
+import org.trustedanalytics.das.subservices.callbacks.CallbackSigner;
 import org.trustedanalytics.das.subservices.downloader.DownloaderClient;
 import org.trustedanalytics.das.subservices.downloader.RestDownloaderClient;
 import org.trustedanalytics.das.subservices.metadata.MetadataParser;
 import org.trustedanalytics.das.subservices.metadata.RestMetadataParserClient;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.ServiceManager;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.web.client.AsyncRestOperations;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 @Configuration
 public class SubservicesConfiguration {
 
+    private static final String PARSING = "parsing";
+
+    private static final String DOWNLOADING = "downloading";
+
+    private static final String METAPARSING = "metaparsing";
+
     @Value("${services.downloader}")
     private String downloaderUrl;
 
@@ -53,12 +81,36 @@ public class SubservicesConfiguration {
     @Value("${callback.url}")
     private String callbackUrl;
 
+    @Value("${callback.signing.key:}")
+    private String callbackSigningKey;
+
+    @Value("${pipeline.queueKey:ORG}")
+    private QueueKeyStrategy queueKey;
+
     @Autowired
     private RequestStore requestStore;
 
+    @Autowired
+    private ClientHttpRequestFactory clientHttpRequestFactory;
+
+    @Autowired
+    private AsyncClientHttpRequestFactory asyncClientHttpRequestFactory;
+
+    @Autowired
+    private RetryStore retryStore;
+
+    @Autowired
+    private DeadLetterStore deadLetterStore;
+
+    @Autowired
+    private PipelineProperties pipelineProperties;
+
     @Autowired
     private RequestParsingService requestParsingService;
 
+    @Autowired
+    private RequestMessage.Codec requestMessages;
+
     @Resource(name = "toRequestsParser")
     private BlockingRequestIdQueue toRequestsParser;
 
@@ -68,19 +120,33 @@ public class SubservicesConfiguration {
     @Resource(name = "toMetadataParser")
     private BlockingRequestIdQueue toMetadataParser;
 
+    private final List<ExecutorService> stageExecutors = new ArrayList<>();
+
     @Bean
     public DownloaderClient downloaderClient() {
-        return new RestDownloaderClient(new RestTemplate(), downloaderUrl, callbackUrl);
+        return new RestDownloaderClient(new RestTemplate(clientHttpRequestFactory), asyncRestTemplate(),
+                downloaderUrl, callbackUrl, callbackSigner());
     }
 
     @Bean
     public RestOperations metadataParserTemplate() {
-        return new RestTemplate();
+        return new RestTemplate(clientHttpRequestFactory);
     }
 
     @Bean
     public MetadataParser metadataParser() {
-        return new RestMetadataParserClient(metadataParserTemplate(), metadataParserUrl, callbackUrl);
+        return new RestMetadataParserClient(metadataParserTemplate(), asyncRestTemplate(),
+                metadataParserUrl, callbackUrl, callbackSigner());
+    }
+
+    @Bean
+    public AsyncRestOperations asyncRestTemplate() {
+        return new AsyncRestTemplate(asyncClientHttpRequestFactory, clientHttpRequestFactory);
+    }
+
+    @Bean
+    public CallbackSigner callbackSigner() {
+        return new CallbackSigner(callbackSigningKey);
     }
 
     @Bean
@@ -88,37 +154,129 @@ public class SubservicesConfiguration {
         return new OAuth2TokenRetriever();
     }
 
-    private List<PoolingThreadedService> requestParsingServices() {
-        return createServices(
-                toRequestsParser, requestParsingService::parseRequest, "parsing", 2);
+    @Bean
+    public List<WorkerPool> workerPools() {
+        return Arrays.asList(
+                createPool(toRequestsParser, requestParsingService::parseRequest, null, PARSING),
+                createPool(toDownloader, downloaderClient()::download, downloaderClient()::downloadAsync,
+                        DOWNLOADING),
+                createPool(toMetadataParser, metadataParser()::processRequest,
+                        metadataParser()::processRequestAsync, METAPARSING));
     }
 
-    private List<PoolingThreadedService> downloadingServices() {
-        return createServices(
-                toDownloader, downloaderClient()::download, "downloading", 2);
+    @Bean
+    public RetryScheduler retryScheduler() {
+        return new RetryScheduler(retryStore, stageQueues(), pipelineProperties.getRetryPollMs());
     }
 
-    private List<PoolingThreadedService> metaparsingServices() {
-        return createServices(
-                toMetadataParser, metadataParser()::processRequest, "metaparsing", 4);
+    @Bean
+    public DeadLetterReplayer deadLetterReplayer() {
+        return new DeadLetterReplayer(deadLetterStore, requestStore, stageQueues(),
+                pipelineProperties.getReplayRate(), queueKey);
     }
 
     // TODO: should be wrapped so that "awaitStopped" is called right after stopAsync
     @Bean(initMethod = "startAsync", destroyMethod = "stopAsync")
     public ServiceManager serviceManager() {
-        List<PoolingThreadedService> services = new ArrayList<>();
-        services.addAll(requestParsingServices());
-        services.addAll(downloadingServices());
-        services.addAll(metaparsingServices());
+        List<Service> services = new ArrayList<>(workerPools());
+        services.add(retryScheduler());
+        if (workerPools().stream().anyMatch(WorkerPool::isScalable)) {
+            services.add(new WorkerAutoscaler(workerPools(), pipelineProperties.getAutoscale()));
+        }
         return new ServiceManager(services);
     }
 
-    private List<PoolingThreadedService> createServices(
-            BlockingRequestIdQueue queue, Consumer<Request> handler, String name, int threadsCount) {
-        List<PoolingThreadedService> services = new ArrayList<>(threadsCount);
-        for (int i = 0; i < threadsCount; i++) {
-            services.add(new PoolingThreadedService(queue, handler, name, requestStore));
+    @Bean
+    public PublicMetrics pipelineMetrics() {
+        return () -> {
+            List<Metric<?>> metrics = new ArrayList<>();
+            for (WorkerPool pool : workerPools()) {
+                String prefix = "pipeline." + pool.getName() + ".";
+                metrics.add(new Metric<>(prefix + "workers", pool.size()));
+                metrics.add(new Metric<>(prefix + "processed", pool.getMetrics().getProcessed()));
+                long queueSize = pool.getQueue().size();
+                if (queueSize >= 0) {
+                    metrics.add(new Metric<>(prefix + "queue.size", queueSize));
+                }
+            }
+            metrics.add(new Metric<>("pipeline.retries.size", retryScheduler().size()));
+            for (String stage : deadLetterReplayer().getStages()) {
+                metrics.add(new Metric<>("pipeline." + stage + ".deadletters", deadLetterReplayer().size(stage)));
+            }
+            return metrics;
+        };
+    }
+
+    private Map<String, BlockingRequestIdQueue> stageQueues() {
+        return ImmutableMap.of(PARSING, toRequestsParser, DOWNLOADING, toDownloader, METAPARSING, toMetadataParser);
+    }
+
+    @PreDestroy
+    public void shutdownStageExecutors() {
+        stageExecutors.forEach(ExecutorService::shutdown);
+    }
+
+    /**
+     * @param asyncHandler used when stage is configured to keep more than one call in flight,
+     * null when stage has only blocking handler
+     */
+    private WorkerPool createPool(
+            BlockingRequestIdQueue stageQueue, Consumer<Request> handler,
+            Function<Request, CompletableFuture<?>> asyncHandler, String name) {
+        StageProperties stage = pipelineProperties.getStage(name);
+        BlockingRequestIdQueue queue = workerQueue(stageQueue);
+        StageMetrics metrics = new StageMetrics();
+        FailedRequests failures = new FailedRequests(requestStore, retryPolicy(stage.getRetry()), retryScheduler(),
+                deadLetterStore);
+        if (stage.getMode() == PipelineProperties.Mode.TASKS) {
+            ExecutorService executor = TaskExecutors.newPerTaskExecutor(name);
+            stageExecutors.add(executor);
+            return new WorkerPool(name, queue, () -> new PoolingThreadedServiceBuilder(queue,
+                    request -> CompletableFuture.runAsync(() -> handler.accept(request), executor), name, requestStore,
+                    requestMessages)
+                    .withMaxInFlight(stage.getConcurrency())
+                    .withBatchSize(stage.getBatchSize())
+                    .withSnapshotMaxAge(pipelineProperties.getSnapshotMaxAgeMs())
+                    .withMetrics(metrics)
+                    .withFailures(failures)
+                    .build(),
+                    metrics, 1, 1, 1, stage.getConcurrency());
+        }
+
+        Function<Request, CompletableFuture<?>> workerHandler;
+        int inFlight;
+        if (asyncHandler != null && stage.getInFlight() > 1) {
+            workerHandler = asyncHandler;
+            inFlight = stage.getInFlight();
+        } else {
+            workerHandler = PoolingThreadedService.blocking(handler);
+            inFlight = 1;
         }
-        return services;
+        return new WorkerPool(name, queue,
+                () -> new PoolingThreadedServiceBuilder(queue, workerHandler, name, requestStore, requestMessages)
+                        .withMaxInFlight(inFlight)
+                        .withBatchSize(stage.getBatchSize())
+                        .withSnapshotMaxAge(pipelineProperties.getSnapshotMaxAgeMs())
+                        .withMetrics(metrics)
+                        .withFailures(failures)
+                        .build(),
+                metrics, stage.getWorkers(), stage.getMinWorkers(), stage.getMaxWorkers(), inFlight);
+    }
+
+    /**
+     * Workers of every stage share the queue, so fair scheduling covers the whole stage.
+     */
+    private BlockingRequestIdQueue workerQueue(BlockingRequestIdQueue stageQueue) {
+        PipelineProperties.FairnessProperties fairness = pipelineProperties.getFairness();
+        if (!fairness.isEnabled()) {
+            return stageQueue;
+        }
+        return new FairRequestIdQueue(stageQueue, requestMessages, fairness.getBufferSize(), fairness.getDefaultWeight(),
+                fairness.getWeights());
+    }
+
+    private static RetryPolicy retryPolicy(PipelineProperties.RetryProperties retry) {
+        return new RetryPolicy(retry.getMaxAttempts(), retry.getInitialDelayMs(), retry.getMaxDelayMs(),
+                retry.getMultiplier(), retry.getJitter());
     }
 }
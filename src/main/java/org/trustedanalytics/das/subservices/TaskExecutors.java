@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors running every task in its own thread.
+ */
+public class TaskExecutors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskExecutors.class);
+
+    private TaskExecutors() {
+    }
+
+    /**
+     * Uses virtual threads when the runtime provides them, otherwise pooled daemon threads.
+     * Number of running tasks has to be limited by the caller.
+     */
+    public static ExecutorService newPerTaskExecutor(String name) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.debug("Virtual threads not available, {} tasks use platform threads", name);
+            return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat(name + "-task-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+    }
+}
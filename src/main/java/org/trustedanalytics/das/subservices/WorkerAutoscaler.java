@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trustedanalytics.das.subservices.PipelineProperties.AutoscaleProperties;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Periodically adds or removes one worker of every scalable stage, based on its queue size and
+ * processing latency in the last interval.
+ * <p>
+ * Stage grows when its queue would not drain within target time, or, when queue size is unknown,
+ * when workers are busy most of the time. It shrinks when queue is empty and workers are mostly
+ * idle.
+ */
+public class WorkerAutoscaler extends AbstractScheduledService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerAutoscaler.class);
+
+    private final List<WorkerPool> pools;
+    private final AutoscaleProperties properties;
+    private final Map<WorkerPool, StageMetrics.Snapshot> lastSnapshots = new HashMap<>();
+
+    public WorkerAutoscaler(List<WorkerPool> pools, AutoscaleProperties properties) {
+        this.pools = pools.stream().filter(WorkerPool::isScalable).collect(Collectors.toList());
+        this.properties = properties;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        pools.forEach(pool -> lastSnapshots.put(pool, pool.getMetrics().snapshot()));
+    }
+
+    @Override
+    protected void runOneIteration() throws Exception {
+        for (WorkerPool pool : pools) {
+            try {
+                scale(pool);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to scale " + pool.getName(), e);
+            }
+        }
+    }
+
+    void scale(WorkerPool pool) {
+        StageMetrics.Snapshot current = pool.getMetrics().snapshot();
+        StageMetrics.Snapshot last = lastSnapshots.put(pool, current);
+        if (last == null || !pool.isRunning()) {
+            return;
+        }
+        int workers = pool.size();
+        int desired = desiredWorkers(workers, pool.getWorkerCapacity(), pool.getQueue().size(),
+                current.averageLatencyMillis(last), current.utilization(last, workers * pool.getWorkerCapacity()));
+        if (desired != workers) {
+            pool.resize(desired);
+        }
+    }
+
+    /**
+     * @param backlog queue size, negative if unknown
+     * @return number of workers for the next interval, differs from current by at most one
+     */
+    int desiredWorkers(int workers, int workerCapacity, long backlog, long latencyMillis, double utilization) {
+        if (backlog > 0 && latencyMillis > 0) {
+            long capacity = Math.max(1, (long) workers * workerCapacity);
+            long drainMillis = backlog * latencyMillis / capacity;
+            if (drainMillis > TimeUnit.SECONDS.toMillis(properties.getTargetDrainSeconds())) {
+                return workers + 1;
+            }
+        }
+        if (backlog < 0 && utilization > properties.getScaleUpUtilization()) {
+            return workers + 1;
+        }
+        if (backlog <= 0 && utilization < properties.getScaleDownUtilization()) {
+            return workers - 1;
+        }
+        return workers;
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(
+                properties.getIntervalSeconds(), properties.getIntervalSeconds(), TimeUnit.SECONDS);
+    }
+
+    @Override
+    protected String serviceName() {
+        return "WorkerAutoscaler";
+    }
+}
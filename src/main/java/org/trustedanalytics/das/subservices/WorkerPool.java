@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractIdleService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Workers of one pipeline stage. Number of workers can be changed while running, within
+ * min/max bounds.
+ * <p>
+ * Removed worker stops after finishing requests it is processing, or within a second when it is
+ * waiting for requests. Requests it has taken and not started yet are returned to queue.
+ */
+public class WorkerPool extends AbstractIdleService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerPool.class);
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private final String name;
+    private final BlockingRequestIdQueue queue;
+    private final Supplier<PoolingThreadedService> workerFactory;
+    private final StageMetrics metrics;
+    private final int initialWorkers;
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final int workerCapacity;
+    private final List<PoolingThreadedService> workers = new ArrayList<>();
+
+    /**
+     * @param workerCapacity requests one worker may process at once
+     */
+    public WorkerPool(String name, BlockingRequestIdQueue queue, Supplier<PoolingThreadedService> workerFactory,
+                      StageMetrics metrics, int initialWorkers, int minWorkers, int maxWorkers,
+                      int workerCapacity) {
+        Preconditions.checkArgument(minWorkers <= maxWorkers,
+                "Stage %s: minWorkers above maxWorkers", name);
+        this.name = name;
+        this.queue = queue;
+        this.workerFactory = workerFactory;
+        this.metrics = metrics;
+        this.initialWorkers = initialWorkers;
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        this.workerCapacity = workerCapacity;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        resize(initialWorkers);
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        List<PoolingThreadedService> stopped;
+        synchronized (this) {
+            stopped = new ArrayList<>(workers);
+            workers.clear();
+        }
+        stopped.forEach(PoolingThreadedService::stopAsync);
+        for (PoolingThreadedService worker : stopped) {
+            try {
+                worker.awaitTerminated(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                LOGGER.warn("Worker of {} did not stop in time", name);
+            }
+        }
+    }
+
+    /**
+     * Starts or stops workers so that there are given number of them, limited to min/max bounds.
+     * @return number of workers after change
+     */
+    public synchronized int resize(int size) {
+        int target = Math.max(minWorkers, Math.min(maxWorkers, size));
+        if (target != workers.size()) {
+            LOGGER.info("Resizing {} from {} to {} workers", name, workers.size(), target);
+        }
+        while (workers.size() < target) {
+            PoolingThreadedService worker = workerFactory.get();
+            workers.add(worker);
+            worker.startAsync();
+        }
+        while (workers.size() > target) {
+            workers.remove(workers.size() - 1).stopAsync();
+        }
+        return target;
+    }
+
+    public synchronized int size() {
+        return workers.size();
+    }
+
+    public boolean isScalable() {
+        return maxWorkers > minWorkers;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BlockingRequestIdQueue getQueue() {
+        return queue;
+    }
+
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getWorkerCapacity() {
+        return workerCapacity;
+    }
+
+    @Override
+    protected String serviceName() {
+        return "WorkerPool(" + name + ")";
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices.callbacks;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriTemplate;
+
+/**
+ * Signs callback urls given to subservices with HMAC-SHA256 of application name and request id,
+ * so callbacks can be authenticated without the token of the request owner. Signing is
+ * disabled when no key is configured.
+ */
+public class CallbackSigner {
+
+    public static final String SIGNATURE_PARAM = "signature";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+
+    public CallbackSigner(String key) {
+        this.key = StringUtils.isEmpty(key)
+                ? null
+                : new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    public boolean isEnabled() {
+        return key != null;
+    }
+
+    /**
+     * @param callbacksUrl template with {app} and {requestId} variables
+     */
+    public String getCallbackUrl(String callbacksUrl, String app, String requestId) {
+        String url = new UriTemplate(callbacksUrl).expand(app, requestId).toString();
+        if (!isEnabled()) {
+            return url;
+        }
+        return UriComponentsBuilder.fromUriString(url)
+                .queryParam(SIGNATURE_PARAM, sign(app, requestId))
+                .build()
+                .toUriString();
+    }
+
+    public boolean verify(String app, String requestId, String signature) {
+        if (!isEnabled() || signature == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(
+                sign(app, requestId).getBytes(StandardCharsets.UTF_8),
+                signature.getBytes(StandardCharsets.UTF_8));
+    }
+
+    String sign(String app, String requestId) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            byte[] signature = mac.doFinal((app + ":" + requestId).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign callback", e);
+        }
+    }
+}
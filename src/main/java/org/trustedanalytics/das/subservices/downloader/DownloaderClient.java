@@ -15,9 +15,19 @@
  */
 package org.trustedanalytics.das.subservices.downloader;
 
+import org.trustedanalytics.das.helper.Futures;
 import org.trustedanalytics.das.parser.Request;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface DownloaderClient {
     DownloadStatus download(Request request);
     DownloadStatus getStatus(Request request);
+
+    /**
+     * Default implementation blocks until download is submitted.
+     */
+    default CompletableFuture<DownloadStatus> downloadAsync(Request request) {
+        return Futures.completed(() -> download(request));
+    }
 }
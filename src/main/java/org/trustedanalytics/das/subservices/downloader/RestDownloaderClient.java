@@ -17,27 +17,40 @@ package org.trustedanalytics.das.subservices.downloader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.AsyncRestOperations;
 import org.springframework.web.client.RestOperations;
-import org.springframework.web.util.UriTemplate;
+import org.trustedanalytics.das.helper.Futures;
 import org.trustedanalytics.das.helper.OAuthAuthenticator;
 import org.trustedanalytics.das.helper.RestTokenAuthenticator;
 import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.subservices.callbacks.CallbackSigner;
 import org.trustedanalytics.das.subservices.callbacks.CallbackUrlListener;
 
+import java.util.concurrent.CompletableFuture;
+
 public class RestDownloaderClient implements DownloaderClient, CallbackUrlListener {
 
     private final RestOperations restTemplate;
+    private final AsyncRestOperations asyncRestTemplate;
     private final String putRequestUrl;
     private final String getRequestStatusUrl;
     private final RestTokenAuthenticator authenticator = new OAuthAuthenticator();
+    private final CallbackSigner callbackSigner;
     private String callbacksUrl;
     private static final Logger LOGGER = LoggerFactory.getLogger(RestDownloaderClient.class);
 
     public RestDownloaderClient(
         RestOperations restTemplate,
+        AsyncRestOperations asyncRestTemplate,
         String downloaderServiceUrl,
-        String callbacksUrl) {
+        String callbacksUrl,
+        CallbackSigner callbackSigner) {
         this.restTemplate = restTemplate;
+        this.asyncRestTemplate = asyncRestTemplate;
+        this.callbackSigner = callbackSigner;
         putRequestUrl = ensureTrailingSlash(downloaderServiceUrl) + "rest/downloader/requests";
         getRequestStatusUrl = putRequestUrl + "/{id}";
         this.callbacksUrl = callbacksUrl;
@@ -53,24 +66,32 @@ public class RestDownloaderClient implements DownloaderClient, CallbackUrlListen
 
     @Override
     public DownloadStatus download(Request request) {
-        authenticator.authenticate(restTemplate, request.getToken());
+        return restTemplate.postForObject(putRequestUrl, createEntity(request), DownloadStatus.class);
+    }
+
+    @Override
+    public CompletableFuture<DownloadStatus> downloadAsync(Request request) {
+        return Futures.toCompletableFuture(
+            asyncRestTemplate.postForEntity(putRequestUrl, createEntity(request), DownloadStatus.class))
+            .thenApply(ResponseEntity::getBody);
+    }
 
+    private HttpEntity<DownloadRequest> createEntity(Request request) {
         DownloadRequest downloadRequest = new DownloadRequest();
         downloadRequest.setOrgUUID(request.getOrgUUID());
         downloadRequest.setSource(request.getSource());
-        downloadRequest.setCallback(new UriTemplate(callbacksUrl).
-                expand("downloader", request.getId()).toString());
+        downloadRequest.setCallback(
+                callbackSigner.getCallbackUrl(callbacksUrl, "downloader", request.getId()));
         downloadRequest.setTitle(request.getTitle());
 
-        return restTemplate.postForObject(putRequestUrl, downloadRequest, DownloadStatus.class);
+        return new HttpEntity<>(downloadRequest, authenticator.authenticate(request.getToken()));
     }
 
     @Override
     public DownloadStatus getStatus(Request request) {
-        authenticator.authenticate(restTemplate, request.getToken());
-
-        return restTemplate.getForObject(getRequestStatusUrl, DownloadStatus.class,
-            request.getId());
+        return restTemplate.exchange(getRequestStatusUrl, HttpMethod.GET,
+            new HttpEntity<>(authenticator.authenticate(request.getToken())), DownloadStatus.class,
+            request.getId()).getBody();
     }
 
     @Override
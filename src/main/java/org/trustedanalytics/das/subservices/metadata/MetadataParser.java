@@ -15,8 +15,21 @@
  */
 package org.trustedanalytics.das.subservices.metadata;
 
+import org.trustedanalytics.das.helper.Futures;
 import org.trustedanalytics.das.parser.Request;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface MetadataParser {
     void processRequest(Request request);
+
+    /**
+     * Default implementation blocks until request is submitted.
+     */
+    default CompletableFuture<Void> processRequestAsync(Request request) {
+        return Futures.completed(() -> {
+            processRequest(request);
+            return null;
+        });
+    }
 }
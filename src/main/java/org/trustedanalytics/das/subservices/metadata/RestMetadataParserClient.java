@@ -15,31 +15,51 @@
  */
 package org.trustedanalytics.das.subservices.metadata;
 
+import org.springframework.http.HttpEntity;
+import org.springframework.web.client.AsyncRestOperations;
 import org.springframework.web.client.RestOperations;
-import org.springframework.web.util.UriTemplate;
+import org.trustedanalytics.das.helper.Futures;
 import org.trustedanalytics.das.helper.OAuthAuthenticator;
 import org.trustedanalytics.das.helper.RestTokenAuthenticator;
 import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.subservices.callbacks.CallbackSigner;
 import org.trustedanalytics.das.subservices.callbacks.CallbackUrlListener;
 
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
 public class RestMetadataParserClient implements MetadataParser, CallbackUrlListener {
 
     private final RestOperations restTemplate;
+    private final AsyncRestOperations asyncRestTemplate;
     private final String metadataParserUrl;
     private final RestTokenAuthenticator authenticator = new OAuthAuthenticator();
+    private final CallbackSigner callbackSigner;
     private String callbacksUrl;
  
-    public RestMetadataParserClient(RestOperations restTemplate, String metadataParserUrl, String callbacksUrl) {
+    public RestMetadataParserClient(RestOperations restTemplate, AsyncRestOperations asyncRestTemplate,
+                                    String metadataParserUrl, String callbacksUrl, CallbackSigner callbackSigner) {
         this.restTemplate = restTemplate;
+        this.asyncRestTemplate = asyncRestTemplate;
+        this.callbackSigner = callbackSigner;
         this.metadataParserUrl = metadataParserUrl;
         this.callbacksUrl = callbacksUrl;
     }
 
     @Override
     public void processRequest(Request request) {
-        authenticator.authenticate(restTemplate, request.getToken());
-        restTemplate.postForObject(metadataParserUrl + "/rest/metadata", createRequest(request),
-                                   String.class);
+        restTemplate.postForObject(metadataParserUrl + "/rest/metadata", createEntity(request), String.class);
+    }
+
+    @Override
+    public CompletableFuture<Void> processRequestAsync(Request request) {
+        return Futures.toCompletableFuture(
+            asyncRestTemplate.postForEntity(metadataParserUrl + "/rest/metadata", createEntity(request), String.class))
+            .thenApply(response -> null);
+    }
+
+    private HttpEntity<MetadataParseRequest> createEntity(Request request) {
+        return new HttpEntity<>(createRequest(request), authenticator.authenticate(request.getToken()));
     }
 
     private MetadataParseRequest createRequest(Request request) {
@@ -51,7 +71,7 @@ public class RestMetadataParserClient implements MetadataParser, CallbackUrlList
         req.setCategory(request.getCategory());
         req.setOrgUUID(request.getOrgUUID());
         req.setPublicRequest(request.isPublicRequest());
-        req.setCallbackUrl(new UriTemplate(callbacksUrl).expand("metadata", request.getId()));
+        req.setCallbackUrl(URI.create(callbackSigner.getCallbackUrl(callbacksUrl, "metadata", request.getId())));
         return req;
     }
 
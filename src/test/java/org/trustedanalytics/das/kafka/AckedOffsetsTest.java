@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class AckedOffsetsTest {
+
+    private static final TopicPartition PARTITION_0 = new TopicPartition("test", 0);
+
+    private static final TopicPartition PARTITION_1 = new TopicPartition("test", 1);
+
+    @Test
+    public void toCommit_stopsAtFirstUnacknowledged() {
+        AckedOffsets offsets = new AckedOffsets();
+        offsets.taken(PARTITION_0, 5);
+        offsets.taken(PARTITION_0, 6);
+        offsets.taken(PARTITION_0, 7);
+
+        offsets.acknowledged(PARTITION_0, 6);
+        assertEquals(ImmutableMap.of(PARTITION_0, 5L), offsets.toCommit());
+
+        offsets.acknowledged(PARTITION_0, 5);
+        assertEquals(ImmutableMap.of(PARTITION_0, 7L), offsets.toCommit());
+
+        offsets.acknowledged(PARTITION_0, 7);
+        assertEquals(ImmutableMap.of(PARTITION_0, 8L), offsets.toCommit());
+    }
+
+    @Test
+    public void toCommit_onlyMovedPartitions() {
+        AckedOffsets offsets = new AckedOffsets();
+        offsets.taken(PARTITION_0, 1);
+        offsets.taken(PARTITION_1, 1);
+        offsets.acknowledged(PARTITION_0, 1);
+        offsets.acknowledged(PARTITION_1, 1);
+        offsets.toCommit();
+
+        offsets.taken(PARTITION_1, 2);
+        offsets.acknowledged(PARTITION_1, 2);
+
+        assertEquals(ImmutableMap.of(PARTITION_1, 3L), offsets.toCommit());
+        assertTrue(offsets.toCommit().isEmpty());
+    }
+
+    @Test
+    public void acknowledgements_countedUntilCommit() {
+        AckedOffsets offsets = new AckedOffsets();
+        offsets.taken(PARTITION_0, 1);
+        offsets.taken(PARTITION_0, 2);
+        offsets.acknowledged(PARTITION_0, 1);
+        offsets.acknowledged(PARTITION_0, 1);
+        assertEquals(1, offsets.getAcknowledgedSinceCommit());
+
+        offsets.toCommit();
+        assertEquals(0, offsets.getAcknowledgedSinceCommit());
+    }
+
+    @Test
+    public void revokedPartition_lateAcknowledgementIgnored() {
+        AckedOffsets offsets = new AckedOffsets();
+        offsets.taken(PARTITION_0, 1);
+        offsets.revoked(Collections.singletonList(PARTITION_0));
+
+        offsets.acknowledged(PARTITION_0, 1);
+
+        assertEquals(0, offsets.getAcknowledgedSinceCommit());
+        assertTrue(offsets.toCommit().isEmpty());
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.kafka;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Test;
+import org.trustedanalytics.das.store.QueueFullException;
+
+public class KafkaClientRequestIdQueueTest {
+
+    private static final String TOPIC = "test";
+
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    private final RecordingConsumer consumer = new RecordingConsumer();
+
+    @Test
+    public void offerAll_sendsAllBeforeAwaitingDelivery() throws Exception {
+        MockProducer<String, String> producer =
+                new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+        KafkaClientRequestIdQueue queue = newQueue(producer, 60000);
+
+        CompletableFuture<Void> offered =
+                CompletableFuture.runAsync(() -> queue.offerAll(Arrays.asList("id1", "id2", "id3")));
+        awaitSent(producer, 3);
+        for (int i = 0; i < 3; i++) {
+            producer.completeNext();
+        }
+        offered.get(1, TimeUnit.SECONDS);
+
+        assertThat(producer.history().stream().map(ProducerRecord::value).collect(Collectors.toList()),
+                contains("id1", "id2", "id3"));
+        assertThat(producer.history().stream().map(ProducerRecord::topic).distinct().collect(Collectors.toList()),
+                contains(TOPIC));
+    }
+
+    @Test
+    public void offerAll_keyed_sendsWithKeys() {
+        MockProducer<String, String> producer =
+                new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        KafkaClientRequestIdQueue queue = newQueue(producer, 60000);
+        Map<String, String> keysByItem = new LinkedHashMap<>();
+        keysByItem.put("id1", "org1");
+        keysByItem.put("id2", null);
+
+        queue.offerAll(keysByItem);
+
+        assertThat(producer.history().stream().map(ProducerRecord::key).collect(Collectors.toList()),
+                contains("org1", null));
+    }
+
+    @Test
+    public void offer_failedDelivery_throwsWithRejectedItem() {
+        MockProducer<String, String> producer =
+                new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+        KafkaClientRequestIdQueue queue = newQueue(producer, 60000);
+        CompletableFuture.runAsync(() -> {
+            while (!producer.errorNext(new RuntimeException("broker unavailable"))) {
+                Thread.yield();
+            }
+        });
+
+        try {
+            queue.offer("id1");
+            fail("Failed delivery not reported");
+        } catch (QueueFullException e) {
+            assertThat(e.getRejected(), contains("id1"));
+        }
+    }
+
+    @Test(expected = QueueFullException.class)
+    public void offer_unconfirmedDelivery_throwsAfterTimeout() {
+        MockProducer<String, String> producer =
+                new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+
+        newQueue(producer).offer("id1");
+    }
+
+    @Test
+    public void take_acknowledged_commitsOffsetsOnNextTake() throws Exception {
+        KafkaClientRequestIdQueue queue = newQueue(autoCompletingProducer());
+        addRecords("id1", "id2", "id3");
+
+        assertThat(queue.take(), equalTo("id1"));
+        assertThat(queue.take(), equalTo("id2"));
+        queue.ack("id2");
+        queue.take();
+        assertThat(consumer.committed(PARTITION).offset(), equalTo(0L));
+
+        queue.ack("id1");
+        queue.drainTo(10, 0, TimeUnit.MILLISECONDS);
+        assertThat(consumer.committed(PARTITION).offset(), equalTo(2L));
+    }
+
+    @Test
+    public void nack_acknowledgesOnlyAfterCopyIsDelivered() throws Exception {
+        MockProducer<String, String> producer =
+                new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+        KafkaClientRequestIdQueue queue = newQueue(producer);
+        addRecords("id1", "id2");
+
+        queue.take();
+        queue.nack("id1");
+        queue.take();
+        assertThat(consumer.committed(PARTITION), nullValue());
+
+        producer.completeNext();
+        queue.drainTo(10, 0, TimeUnit.MILLISECONDS);
+        assertThat(consumer.committed(PARTITION).offset(), equalTo(1L));
+        assertThat(producer.history().get(0).key(), equalTo("org1"));
+        assertThat(producer.history().get(0).value(), equalTo("id1"));
+    }
+
+    @Test
+    public void partitionsRevoked_commitsAcknowledgedAndDropsBufferedRecords() throws Exception {
+        KafkaClientRequestIdQueue queue = newQueue(autoCompletingProducer());
+        addRecords("id1", "id2", "id3");
+
+        queue.take();
+        queue.ack("id1");
+        consumer.listener.onPartitionsRevoked(Collections.singletonList(PARTITION));
+
+        assertThat(consumer.committed(PARTITION).offset(), equalTo(1L));
+        assertThat(queue.drainTo(10, 0, TimeUnit.MILLISECONDS), empty());
+    }
+
+    @Test
+    public void release_closesConsumerOfThread() throws Exception {
+        KafkaClientRequestIdQueue queue = newQueue(autoCompletingProducer());
+        addRecords("id1");
+
+        queue.take();
+        queue.release();
+
+        assertTrue(consumer.closed());
+    }
+
+    private KafkaClientRequestIdQueue newQueue(MockProducer<String, String> producer) {
+        return newQueue(producer, 100);
+    }
+
+    private KafkaClientRequestIdQueue newQueue(MockProducer<String, String> producer, long sendTimeoutMillis) {
+        return new KafkaClientRequestIdQueue(TOPIC, producer, () -> consumer, new OffsetCommitPolicy(1, 60000),
+                sendTimeoutMillis);
+    }
+
+    private static MockProducer<String, String> autoCompletingProducer() {
+        return new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+    }
+
+    /**
+     * Records are added on the first poll, when the queue has subscribed.
+     */
+    private void addRecords(String... values) {
+        consumer.schedulePollTask(() -> {
+            consumer.rebalance(Collections.singletonList(PARTITION));
+            for (int offset = 0; offset < values.length; offset++) {
+                consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, offset, "org1", values[offset]));
+            }
+        });
+    }
+
+    private static void awaitSent(MockProducer<String, String> producer, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (producer.history().size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static class RecordingConsumer extends MockConsumer<String, String> {
+
+        private volatile ConsumerRebalanceListener listener;
+
+        RecordingConsumer() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        @Override
+        public synchronized void subscribe(List<String> topics, ConsumerRebalanceListener listener) {
+            this.listener = listener;
+            super.subscribe(topics, listener);
+        }
+    }
+}
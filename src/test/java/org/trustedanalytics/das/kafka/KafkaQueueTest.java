@@ -16,10 +16,18 @@
 package org.trustedanalytics.das.kafka;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.RandomStringUtils;
 import org.trustedanalytics.das.helper.RandomUUIDRequestIdGenerator;
@@ -37,6 +45,16 @@ public class KafkaQueueTest {
 
     private static String TOPIC = "test";
 
+    private static String MULTI_PARTITION_TOPIC = "test-partitioned";
+
+    private static String COMMIT_TOPIC = "test-commit";
+
+    private static String RESIZE_TOPIC = "test-resize";
+
+    private static String MOVED_TOPIC = "test-moved";
+
+    private static String SINGLE_READER_TOPIC = "test-single-reader";
+
     private RequestIdGenerator generator;
 
     private Producer<String, String> producer;
@@ -60,14 +78,130 @@ public class KafkaQueueTest {
     public void testConsumer() throws InterruptedException, URISyntaxException {
         String expectedId = generator.getId(generateRandomUri());
         KafkaRequestIdQueue queue =
-                KafkaRequestIdQueue.newJsonQueue(TOPIC, kafka.getDefaultProducerConfig(),
-                        kafka.getDefaultConsumerConfig());
+                KafkaRequestIdQueue.newJsonQueue(TOPIC, 1, kafka.getDefaultProducerConfig(),
+                        kafka.getDefaultConsumerConfig(), OffsetCommitPolicy.DEFAULT);
 
         queue.offer(expectedId);
         assertThat(queue.take(), equalTo(expectedId));
         queue.close();
     }
 
+    @Test
+    public void multipleStreams_threadsReadAllPartitions() throws Exception {
+        kafka.createTopic(MULTI_PARTITION_TOPIC, 2);
+        KafkaRequestIdQueue queue =
+                KafkaRequestIdQueue.newJsonQueue(MULTI_PARTITION_TOPIC, 2, kafka.getDefaultProducerConfig(),
+                        kafka.getDefaultConsumerConfig(), OffsetCommitPolicy.DEFAULT);
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(generator.getId(generateRandomUri()));
+        }
+        queue.offerAll(expected);
+
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        long deadline = System.currentTimeMillis() + 30000;
+        for (int i = 0; i < 2; i++) {
+            executor.submit(() -> {
+                while (received.size() < expected.size() && System.currentTimeMillis() < deadline) {
+                    received.addAll(queue.drainTo(10, 100, TimeUnit.MILLISECONDS));
+                }
+                return null;
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(40, TimeUnit.SECONDS);
+
+        assertThat(queue.getStreamCount(), equalTo(2));
+        assertThat(received, equalTo(expected));
+        queue.close();
+    }
+
+    @Test
+    public void take_singleThread_readsAllStreams() throws Exception {
+        kafka.createTopic(SINGLE_READER_TOPIC, 2);
+        KafkaRequestIdQueue queue =
+                KafkaRequestIdQueue.newJsonQueue(SINGLE_READER_TOPIC, 2, kafka.getDefaultProducerConfig(),
+                        kafka.getDefaultConsumerConfig(), OffsetCommitPolicy.DEFAULT);
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(generator.getId(generateRandomUri()));
+        }
+        queue.offerAll(expected);
+
+        Set<String> received = new HashSet<>();
+        for (int i = 0; i < expected.size(); i++) {
+            received.add(queue.take());
+        }
+
+        assertThat(queue.getStreamCount(), equalTo(2));
+        assertThat(received, equalTo(expected));
+        queue.close();
+    }
+
+    @Test
+    public void drainTo_otherWorkerStopped_remainingWorkerReadsAllPartitions() throws Exception {
+        kafka.createTopic(RESIZE_TOPIC, 2);
+        KafkaRequestIdQueue queue =
+                KafkaRequestIdQueue.newJsonQueue(RESIZE_TOPIC, 2, kafka.getDefaultProducerConfig(),
+                        kafka.getDefaultConsumerConfig(), OffsetCommitPolicy.DEFAULT);
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(generator.getId(generateRandomUri()));
+        }
+        queue.offerAll(expected);
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.submit(() -> {
+            received.addAll(queue.drainTo(1, 100, TimeUnit.MILLISECONDS));
+            queue.release();
+            return null;
+        }).get(10, TimeUnit.SECONDS);
+        stopped.shutdown();
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received.size() < expected.size() && System.currentTimeMillis() < deadline) {
+            received.addAll(queue.drainTo(10, 100, TimeUnit.MILLISECONDS));
+        }
+
+        assertThat(received, equalTo(expected));
+        queue.close();
+    }
+
+    @Test
+    public void close_commitsUpToFirstUnacknowledgedMessage() throws Exception {
+        kafka.createTopic(COMMIT_TOPIC);
+        KafkaRequestIdQueue queue =
+                KafkaRequestIdQueue.newJsonQueue(COMMIT_TOPIC, 1, kafka.getDefaultProducerConfig(),
+                        kafka.getDefaultConsumerConfig(), OffsetCommitPolicy.DEFAULT);
+        queue.offerAll(Arrays.asList("id1", "id2", "id3"));
+
+        assertThat(queue.take(), equalTo("id1"));
+        assertThat(queue.take(), equalTo("id2"));
+        assertThat(queue.take(), equalTo("id3"));
+        queue.ack("id1");
+        queue.ack("id3");
+        queue.close();
+
+        assertThat(kafka.getCommittedOffset(COMMIT_TOPIC, 0), equalTo(1L));
+    }
+
+    @Test
+    public void close_partitionMovedToOtherConsumer_doesNotCommitIt() throws Exception {
+        kafka.createTopic(MOVED_TOPIC);
+        KafkaRequestIdQueue queue =
+                KafkaRequestIdQueue.newJsonQueue(MOVED_TOPIC, 1, kafka.getDefaultProducerConfig(),
+                        kafka.getDefaultConsumerConfig(), OffsetCommitPolicy.DEFAULT);
+        queue.offerAll(Arrays.asList("id1", "id2"));
+
+        assertThat(queue.take(), equalTo("id1"));
+        kafka.setPartitionOwner(MOVED_TOPIC, 0, "other-consumer-0");
+        queue.ack("id1");
+        queue.close();
+
+        assertThat(kafka.getCommittedOffset(MOVED_TOPIC, 0), nullValue());
+    }
+
     @After
     public void shudownProducer() {
         producer.close();
@@ -58,4 +58,13 @@ public class RequestTest {
         Request testRequest = new Request.RequestBuilder(request).build();
         assertEquals(request, testRequest);
     }
+
+    @Test
+    public void changeState_resetsAttemptsUnlessFailed() throws URISyntaxException {
+        Request retried = createTestRequest("http://example.com").nextAttempt().nextAttempt();
+
+        assertEquals(2, retried.getAttempts());
+        assertEquals(0, retried.changeState(State.FINISHED).getAttempts());
+        assertEquals(2, retried.changeState(State.ERROR).getAttempts());
+    }
 }
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.security.authorization;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.web.client.RestClientException;
+import org.trustedanalytics.usermanagement.security.model.OrgPermission;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingAuthorizationTest {
+
+    @Mock
+    private PlatformAuthorization platformAuthorization;
+
+    @Mock
+    private HttpServletRequest request;
+
+    private final Collection<OrgPermission> permissions = Collections.singletonList(mock(OrgPermission.class));
+
+    private CachingAuthorization authorization;
+
+    @Before
+    public void setUp() {
+        authorization = new CachingAuthorization(platformAuthorization, 60, 100);
+        when(request.getHeader("Authorization")).thenReturn("bearer token1");
+    }
+
+    @Test
+    public void getAccessibleOrgs_sameToken_userManagementCalledOnce() throws Exception {
+        when(platformAuthorization.getAccessibleOrgs("token1")).thenReturn(permissions);
+
+        authorization.getAccessibleOrgs(request);
+        Collection<OrgPermission> returned = authorization.getAccessibleOrgs(request);
+
+        assertThat(returned, equalTo(permissions));
+        verify(platformAuthorization, times(1)).getAccessibleOrgs("token1");
+        assertThat(authorization.getCache().stats().hitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void getAccessibleOrgs_concurrentRequests_shareSingleLookup() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        when(platformAuthorization.getAccessibleOrgs("token1")).thenAnswer(invocation -> {
+            loading.await(5, TimeUnit.SECONDS);
+            return permissions;
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Collection<OrgPermission>>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> authorization.getAccessibleOrgs(request)));
+        }
+        loading.countDown();
+
+        for (Future<Collection<OrgPermission>> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS), equalTo(permissions));
+        }
+        executor.shutdown();
+        verify(platformAuthorization, times(1)).getAccessibleOrgs("token1");
+    }
+
+    @Test
+    public void getAccessibleOrgs_lookupFailed_notCached() throws Exception {
+        when(platformAuthorization.getAccessibleOrgs("token1"))
+            .thenThrow(new RestClientException("unavailable"))
+            .thenReturn(permissions);
+
+        try {
+            authorization.getAccessibleOrgs(request);
+        } catch (RestClientException expected) {
+        }
+
+        assertThat(authorization.getAccessibleOrgs(request), equalTo(permissions));
+    }
+
+    @Test
+    public void getAccessibleOrgs_noToken_returnsEmpty() throws Exception {
+        when(request.getHeader("Authorization")).thenReturn(null);
+
+        assertThat(authorization.getAccessibleOrgs(request), empty());
+        verify(platformAuthorization, never()).getAccessibleOrgs(anyString());
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.security.authorization;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
+import org.trustedanalytics.cloud.auth.AuthTokenRetriever;
+import org.trustedanalytics.usermanagement.security.model.OrgPermission;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JwtClaimsAuthorizationTest {
+
+    @Mock
+    private Authorization fallback;
+
+    @Mock
+    private AuthTokenRetriever tokenRetriever;
+
+    @Mock
+    private HttpServletRequest request;
+
+    private JwtClaimsAuthorization authorization;
+
+    @Before
+    public void setUp() {
+        authorization = new JwtClaimsAuthorization(fallback, tokenRetriever, "org_ids", new ObjectMapper());
+        SecurityContextHolder.getContext()
+            .setAuthentication(new TestingAuthenticationToken("user", "password", "ROLE_USER"));
+    }
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void getAccessibleOrgs_orgsInClaims_userManagementNotCalled() throws Exception {
+        givenToken("{\"user_id\":\"user\",\"org_ids\":[\"org1\",\"org2\"]}");
+
+        Collection<OrgPermission> permissions = authorization.getAccessibleOrgs(request);
+
+        assertThat(permissions.stream().map(p -> p.getOrg().getGuid().toString()).collect(Collectors.toList()),
+            containsInAnyOrder("org1", "org2"));
+        verify(fallback, never()).getAccessibleOrgs(any());
+    }
+
+    @Test
+    public void getAccessibleOrgs_noOrgsClaim_fallbackUsed() throws Exception {
+        givenToken("{\"user_id\":\"user\"}");
+        Collection<OrgPermission> expected = Collections.singletonList(mock(OrgPermission.class));
+        when(fallback.getAccessibleOrgs(request)).thenReturn(expected);
+
+        assertThat(authorization.getAccessibleOrgs(request), equalTo(expected));
+    }
+
+    @Test
+    public void getAccessibleOrgs_tokenNotJwt_fallbackUsed() throws Exception {
+        when(tokenRetriever.getAuthToken(any(Authentication.class))).thenReturn("opaque-token");
+        Collection<OrgPermission> expected = Collections.singletonList(mock(OrgPermission.class));
+        when(fallback.getAccessibleOrgs(request)).thenReturn(expected);
+
+        assertThat(authorization.getAccessibleOrgs(request), equalTo(expected));
+    }
+
+    private void givenToken(String claims) {
+        String token = JwtHelper.encode(claims, new MacSigner("secret")).getEncoded();
+        when(tokenRetriever.getAuthToken(any(Authentication.class))).thenReturn(token);
+    }
+}
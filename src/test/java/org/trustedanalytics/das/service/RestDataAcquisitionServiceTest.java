@@ -15,6 +15,7 @@
  */
 package org.trustedanalytics.das.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableSet;
 
 import org.junit.Before;
@@ -22,9 +23,12 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.core.Authentication;
 import org.trustedanalytics.cloud.auth.AuthTokenRetriever;
 import org.trustedanalytics.das.dataflow.FlowManager;
@@ -35,18 +39,28 @@ import org.trustedanalytics.das.security.permissions.PermissionVerifier;
 import org.trustedanalytics.das.store.RequestStore;
 
 import java.nio.file.AccessDeniedException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.servlet.http.HttpServletRequest;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.isIn;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -74,6 +88,9 @@ public class RestDataAcquisitionServiceTest {
     @Mock
     PermissionVerifier permissionVerifier;
 
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @Rule
     public ExpectedException exception = ExpectedException.none();
 
@@ -115,6 +132,61 @@ public class RestDataAcquisitionServiceTest {
         assertThat(current, equalTo(expected));
     }
 
+    @Test
+    public void testAddBatch_processesAllowedRequestsTogether() throws Exception {
+        RequestDTO first = getTestHttpRequest().build().toDto();
+        RequestDTO forbidden = getTestHttpRequest().withOrgId("other-org").build().toDto();
+        RequestDTO unknownProtocol = getTestRequestWithUnknownProtocol().build().toDto();
+        RequestDTO second = getTestHttpRequest().build().toDto();
+        when(permissionVerifier.getAccessibleOrgsIDs(context)).thenReturn(ImmutableSet.of("org"));
+        doThrow(new AccessDeniedException("other-org"))
+                .when(permissionVerifier).throwForbiddenWhenIdNotListed(any(), eq("other-org"));
+        when(tokenRetriever.getAuthToken(any(Authentication.class))).thenReturn("1231aessa");
+        when(idGenerator.getId(any())).thenReturn("2", "3");
+
+        List<BatchItemResult> results =
+                service.addRequests(Arrays.asList(first, forbidden, unknownProtocol, second), context);
+
+        assertThat(results.stream().map(BatchItemResult::getStatus).collect(Collectors.toList()),
+                contains(202, 403, 400, 202));
+        verify(tokenRetriever, times(1)).getAuthToken(any(Authentication.class));
+        ArgumentCaptor<List> processed = ArgumentCaptor.forClass(List.class);
+        verify(flowManager).newRequests(processed.capture());
+        assertThat(processed.getValue().size(), equalTo(2));
+    }
+
+    @Test
+    public void testAddBatch_laterGroupFails_reportsFailureOnlyForItsRequests() throws Exception {
+        RequestDTO http = getTestHttpRequest().build().toDto();
+        RequestDTO hdfs = getTestRequestWithHdfsFile().build().toDto();
+        when(permissionVerifier.getAccessibleOrgsIDs(context)).thenReturn(ImmutableSet.of("org"));
+        when(idGenerator.getId(any())).thenReturn("2", "3");
+        when(flowManager.requestsDownloaded(any())).thenThrow(new IllegalStateException("store unavailable"));
+
+        List<BatchItemResult> results = service.addRequests(Arrays.asList(http, hdfs), context);
+
+        assertThat(results.stream().map(BatchItemResult::getStatus).collect(Collectors.toList()),
+                contains(202, 500));
+        verify(flowManager).newRequests(any());
+    }
+
+    @Test
+    public void testStreamAll_writesMatchingRequestsAndClosesStream() throws Exception {
+        Request matching = getTestHttpRequest().withCategory("health").build();
+        Request other = getTestHttpRequest().withId("2").withCategory("other").build();
+        AtomicBoolean closed = new AtomicBoolean();
+        when(permissionVerifier.getAccessibleOrgsIDs(context)).thenReturn(ImmutableSet.of("org"));
+        when(requestStore.stream("org")).thenReturn(Stream.of(matching, other).onClose(() -> closed.set(true)));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        service.streamAllRequests(null, null, "health", null, context, response);
+
+        String[] lines = response.getContentAsString().split("\n");
+        assertThat(lines.length, equalTo(1));
+        assertThat(lines[0], containsString("\"id\":\"1\""));
+        assertThat(closed.get(), equalTo(true));
+    }
+
     private void testAdd(Request.RequestBuilder requestBuilder) throws AccessDeniedException {
         testAdd(requestBuilder, State.NEW, r ->
                 verify(flowManager).newRequest(r));
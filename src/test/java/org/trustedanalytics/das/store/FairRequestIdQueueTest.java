@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FairRequestIdQueueTest {
+
+    private static final RequestMessage.Codec CODEC = new RequestMessage.Codec(new ObjectMapper());
+
+    @Mock
+    BlockingRequestIdQueue delegate;
+
+    @Test
+    public void drainTo_bigBatchAhead_takesOrganizationsInTurns() throws Exception {
+        returnFromDelegate(messages("big", 4), messages("small", 2));
+        FairRequestIdQueue queue = new FairRequestIdQueue(delegate, CODEC, 100, 1, Collections.emptyMap());
+
+        assertThat(ids(queue.drainTo(6, 0, TimeUnit.MILLISECONDS)),
+                contains("big0", "small0", "big1", "small1", "big2", "big3"));
+    }
+
+    @Test
+    public void drainTo_weightedOrganization_getsMoreRequestsPerTurn() throws Exception {
+        returnFromDelegate(messages("big", 4), messages("small", 2));
+        FairRequestIdQueue queue = new FairRequestIdQueue(delegate, CODEC, 100, 1, ImmutableMap.of("big", 3));
+
+        assertThat(ids(queue.drainTo(6, 0, TimeUnit.MILLISECONDS)),
+                contains("big0", "big1", "big2", "small0", "small1", "big3"));
+    }
+
+    @Test
+    public void drainTo_turnSpansCalls() throws Exception {
+        returnFromDelegate(messages("a", 3), messages("b", 3));
+        FairRequestIdQueue queue = new FairRequestIdQueue(delegate, CODEC, 100, 2, Collections.emptyMap());
+
+        assertThat(ids(queue.drainTo(1, 0, TimeUnit.MILLISECONDS)), contains("a0"));
+        assertThat(ids(queue.drainTo(1, 0, TimeUnit.MILLISECONDS)), contains("a1"));
+        assertThat(ids(queue.drainTo(3, 0, TimeUnit.MILLISECONDS)), contains("b0", "b1", "a2"));
+    }
+
+    @Test
+    public void drainTo_plainIds_servedInQueueOrder() throws Exception {
+        when(delegate.drainTo(anyInt(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(Arrays.asList("id1", "id2", "id3"), Collections.emptyList());
+        FairRequestIdQueue queue = new FairRequestIdQueue(delegate, CODEC, 100, 1, Collections.emptyMap());
+
+        assertThat(queue.drainTo(3, 0, TimeUnit.MILLISECONDS), contains("id1", "id2", "id3"));
+    }
+
+    @Test
+    public void drainTo_bufferedMessages_takesOnlyRoomLeftWithoutWaiting() throws Exception {
+        when(delegate.drainTo(anyInt(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(messages("a", 3), Collections.emptyList());
+        FairRequestIdQueue queue = new FairRequestIdQueue(delegate, CODEC, 5, 1, Collections.emptyMap());
+
+        queue.drainTo(1, 100, TimeUnit.MILLISECONDS);
+        queue.drainTo(1, 100, TimeUnit.MILLISECONDS);
+
+        verify(delegate).drainTo(5, 100, TimeUnit.MILLISECONDS);
+        verify(delegate).drainTo(eq(3), eq(0L), any(TimeUnit.class));
+        assertThat(queue.buffered(), equalTo(1));
+    }
+
+    @Test
+    public void drainTo_concurrentWorkers_takeNoMoreThanBuffer() throws Exception {
+        CountDownLatch draining = new CountDownLatch(1);
+        CountDownLatch delivered = new CountDownLatch(1);
+        when(delegate.drainTo(anyInt(), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+            draining.countDown();
+            delivered.await();
+            return messages("a", (Integer) invocation.getArguments()[0]);
+        });
+        FairRequestIdQueue queue = new FairRequestIdQueue(delegate, CODEC, 5, 1, Collections.emptyMap());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<List<String>> first = executor.submit(() -> queue.drainTo(1, 100, TimeUnit.MILLISECONDS));
+        draining.await();
+        assertThat(queue.drainTo(1, 0, TimeUnit.MILLISECONDS), empty());
+        delivered.countDown();
+        first.get(1, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        verify(delegate, times(1)).drainTo(anyInt(), anyLong(), any(TimeUnit.class));
+        assertThat(queue.buffered(), equalTo(4));
+    }
+
+    @Test
+    public void size_includesBuffered() throws Exception {
+        returnFromDelegate(messages("a", 3));
+        when(delegate.size()).thenReturn(10L);
+        FairRequestIdQueue queue = new FairRequestIdQueue(delegate, CODEC, 100, 1, Collections.emptyMap());
+
+        queue.drainTo(1, 0, TimeUnit.MILLISECONDS);
+
+        assertThat(queue.size(), equalTo(12L));
+    }
+
+    @Test
+    public void ackAndNack_passedToQueue() {
+        FairRequestIdQueue queue = new FairRequestIdQueue(delegate, CODEC, 100, 1, Collections.emptyMap());
+
+        queue.ack("id1");
+        queue.nack("id2");
+
+        verify(delegate).ack("id1");
+        verify(delegate).nack("id2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_zeroWeight_throws() {
+        new FairRequestIdQueue(delegate, CODEC, 100, 1, ImmutableMap.of("org", 0));
+    }
+
+    @SafeVarargs
+    private final void returnFromDelegate(List<String>... batches) throws InterruptedException {
+        List<String> all = Arrays.stream(batches).flatMap(List::stream).collect(Collectors.toList());
+        when(delegate.drainTo(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(all, Collections.emptyList());
+    }
+
+    private static List<String> messages(String org, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> CODEC.encode(org + i, org))
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> ids(List<String> messages) {
+        return messages.stream().map(message -> CODEC.decode(message).getId()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.parser.State;
+
+public class RequestMessageTest {
+
+    private final RequestMessage.Codec codec = new RequestMessage.Codec(new ObjectMapper());
+
+    @Test
+    public void decode_encodedRequest_carriesSnapshot() {
+        Request request = new Request.RequestBuilder(1, "http://example.com/file.csv")
+                .withId("id1").withOrgId("org1").withCategory("other").withState(State.VALIDATED).build();
+
+        RequestMessage message = codec.decode(codec.encode(request));
+
+        assertThat(message.getId(), equalTo("id1"));
+        assertThat(message.getSnapshot().get(), equalTo(request));
+        assertThat(message.getSnapshot().get().getState(), equalTo(State.VALIDATED));
+        assertThat(message.getOrg().get(), equalTo("org1"));
+        assertThat(message.getTimestamp() > 0, equalTo(true));
+    }
+
+    @Test
+    public void decode_plainId_hasNoSnapshot() {
+        RequestMessage message = codec.decode("id1");
+
+        assertThat(message.getId(), equalTo("id1"));
+        assertFalse(message.getSnapshot().isPresent());
+        assertFalse(message.getOrg().isPresent());
+    }
+
+    @Test
+    public void decode_idWithOrg_carriesOrgOnly() {
+        RequestMessage message = codec.decode(codec.encode("id1", "org1"));
+
+        assertThat(message.getId(), equalTo("id1"));
+        assertThat(message.getOrg().get(), equalTo("org1"));
+        assertFalse(message.getSnapshot().isPresent());
+    }
+
+    @Test
+    public void decode_otherVersion_ignoresSnapshot() {
+        RequestMessage message = codec.decode(
+                "{\"version\":" + (RequestMessage.VERSION + 1) + ",\"id\":\"id1\",\"request\":{\"future\":true}}");
+
+        assertThat(message.getId(), equalTo("id1"));
+        assertFalse(message.getSnapshot().isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_malformedEnvelope_throws() {
+        codec.decode("{\"version\":");
+    }
+}
@@ -18,9 +18,16 @@ package org.trustedanalytics.das.store.cloud;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.parser.State;
+import org.trustedanalytics.das.store.RequestPage;
+import org.trustedanalytics.das.store.RequestQuery;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -28,23 +35,55 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.data.redis.core.BoundHashOperations;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
 
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RedisRequestRepositoryTest {
 
+    private static final String REQUESTS_KEY = "requests";
+
+    @Mock
+    private RedisOperations<String, Request> redisTemplate;
+
+    @Mock
+    private HashOperations<String, String, Request> hashOps;
+
+    @Mock
+    private BoundHashOperations<String, String, Request> legacyHashOps;
+
     @Mock
-    private BoundHashOperations<String, String, Request> hashOps;
+    private RedisOperations<String, String> stringTemplate;
+
+    @Mock
+    private BoundHashOperations<String, String, String> orgIndex;
+
+    @Mock
+    private ZSetOperations<String, String> timelines;
 
     private RedisRequestRepository repository;
 
     @Before
     public void before() {
-        repository = new RedisRequestRepository(hashOps);
+        when(redisTemplate.<String, Request>opsForHash()).thenReturn(hashOps);
+        when(redisTemplate.<String, Request>boundHashOps(REQUESTS_KEY)).thenReturn(legacyHashOps);
+        when(stringTemplate.<String, String>boundHashOps("requests-org-index")).thenReturn(orgIndex);
+        when(stringTemplate.opsForZSet()).thenReturn(timelines);
+        repository = new RedisRequestRepository(redisTemplate, stringTemplate, REQUESTS_KEY);
     }
 
     @Test
@@ -53,13 +92,47 @@ public class RedisRequestRepositoryTest {
                 .withOrgId("orgID1")
                 .withId("key1")
                 .build();
-        Map<String, Request> entries = (Map<String, Request>) new HashMap<String, Request>();
-        entries.put(expected.getOrgUUID() + ":" + expected.getId(), expected);
-
-        when(hashOps.entries()).thenReturn(entries);
+        when(orgIndex.get(expected.getId())).thenReturn(expected.getOrgUUID());
+        when(hashOps.get("requests:orgID1", expected.getId())).thenReturn(expected);
 
         Optional<Request> returned = repository.get(expected.getId());
         assertThat(returned.get().getId(), equalTo(expected.getId()));
+        verify(hashOps, never()).entries(any());
+    }
+
+    @Test
+    public void get_onlyInLegacyHash_movedToOrganizationHash() throws URISyntaxException {
+        Request expected = new Request.RequestBuilder(1, "file:///foo/bar.txt")
+                .withOrgId("orgID1")
+                .withId("key1")
+                .build();
+        String legacyKey = expected.getOrgUUID() + ":" + expected.getId();
+        when(redisTemplate.hasKey(REQUESTS_KEY)).thenReturn(true);
+        when(legacyHashOps.scan(any())).thenReturn(cursorOf(ImmutableMap.of(legacyKey, expected)));
+
+        Optional<Request> returned = repository.get(expected.getId());
+
+        assertThat(returned.get(), equalTo(expected));
+        verify(hashOps).put("requests:orgID1", expected.getId(), expected);
+        verify(orgIndex).put(expected.getId(), expected.getOrgUUID());
+        verify(legacyHashOps).delete(legacyKey);
+    }
+
+    @Test
+    public void get_notExisting_returnsEmpty() {
+        when(redisTemplate.hasKey(REQUESTS_KEY)).thenReturn(true);
+        when(legacyHashOps.scan(any())).thenReturn(cursorOf(ImmutableMap.of()));
+
+        assertThat(repository.get("key1").isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void get_legacyHashMigrated_notScanned() {
+        when(redisTemplate.hasKey(REQUESTS_KEY)).thenReturn(false);
+
+        assertThat(repository.get("key1").isPresent(), equalTo(false));
+        verify(legacyHashOps, never()).scan(any());
+        verify(legacyHashOps, never()).keys();
     }
 
     @Test
@@ -70,7 +143,9 @@ public class RedisRequestRepositoryTest {
                 .build();
         repository.put(request);
 
-        verify(hashOps).put(Mockito.eq(request.getOrgUUID() + ":" + request.getId()), Mockito.eq(request));
+        verify(hashOps).put(Mockito.eq("requests:orgID1"), Mockito.eq(request.getId()), Mockito.eq(request));
+        verify(orgIndex).put(request.getId(), request.getOrgUUID());
+        verify(timelines).add("requests-timeline:orgID1", request.getId(), 0);
     }
 
     @Test
@@ -81,29 +156,95 @@ public class RedisRequestRepositoryTest {
         Request request2 = new Request.RequestBuilder(2, "file:///foo/bar.txt")
                 .withOrgId(orgId).withId("key2").build();
         HashMap<String,Request> map = new HashMap<String, Request>();
-        map.put(request.getOrgUUID() + ":" + request.getId(), request);
-        map.put(request.getOrgUUID() + ":" +request2.getId(), request2);
-        when(hashOps.entries()).thenReturn(map);
+        map.put(request.getId(), request);
+        map.put(request2.getId(), request2);
+        when(hashOps.entries("requests:" + orgId)).thenReturn(map);
 
         Map<String, Request> all = repository.getAll(orgId);
 
         assertThat(all.size(), equalTo(2));
+        assertThat(all.keySet(), hasItems("orgID1:key1", "orgID1:key2"));
         assertThat(all.values(), hasItems(request, request2));
     }
 
+    @Test
+    public void getAll_manyOrganizations_singlePipeline() throws URISyntaxException {
+        Request request = new Request.RequestBuilder(1, "file:///foo/bar.txt")
+                .withOrgId("orgID1").withId("key1").build();
+        Request request2 = new Request.RequestBuilder(2, "file:///foo/bar.txt")
+                .withOrgId("orgID2").withId("key2").build();
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenReturn(Arrays.<Object>asList(
+                ImmutableMap.of(request.getId(), request), ImmutableMap.of(request2.getId(), request2)));
+
+        Map<String, Request> all = repository.getAll(Arrays.asList("orgID1", "orgID2"));
+
+        assertThat(all.size(), equalTo(2));
+        assertThat(all.keySet(), hasItems("orgID1:key1", "orgID2:key2"));
+        verify(hashOps, never()).entries(any());
+    }
+
+    @Test
+    public void multiGet_requestsOfManyOrganizations_singlePipeline() throws URISyntaxException {
+        Request request = new Request.RequestBuilder(1, "file:///foo/bar.txt")
+                .withOrgId("orgID1").withId("key1").build();
+        Request request2 = new Request.RequestBuilder(2, "file:///foo/bar.txt")
+                .withOrgId("orgID2").withId("key2").build();
+        when(orgIndex.multiGet(Arrays.asList("key1", "key2", "key3")))
+                .thenReturn(Arrays.asList("orgID1", "orgID2", "orgID1"));
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenReturn(Arrays.<Object>asList(
+                Arrays.asList(request, null), Arrays.asList(request2)));
+
+        Map<String, Request> found = repository.multiGet(Arrays.asList("key1", "key2", "key3"));
+
+        assertThat(found.size(), equalTo(2));
+        assertThat(found.get("key1"), equalTo(request));
+        assertThat(found.get("key2"), equalTo(request2));
+        verify(hashOps, never()).get(any(), any());
+    }
+
     @Test
     public void delete() {
         String key = "key1";
         String orgId = "orgId1";
+        when(orgIndex.get(key)).thenReturn(orgId);
 
-        HashMap<String,Request> map = new HashMap<String, Request>();
-        Request request =  new Request.RequestBuilder(1, null).withOrgId(orgId).withId(key).build();
+        repository.delete(key);
 
-        map.put(orgId + ":" + key, request);
-        when(hashOps.entries()).thenReturn(map);
+        verify(hashOps).delete(Mockito.eq("requests:" + orgId), Mockito.eq(key));
+        verify(timelines).remove("requests-timeline:" + orgId, key);
+        verify(orgIndex).delete(key);
+    }
 
-        repository.delete(key);
+    @Test
+    public void find_limitGiven_readsOnlyPageFromTimeline() throws URISyntaxException {
+        Request newest = new Request.RequestBuilder(1, "file:///foo/bar.txt")
+                .withOrgId("orgID1").withId("key3")
+                .withTimestamps(ImmutableMap.of(State.NEW, 30L)).build();
+        Request middle = new Request.RequestBuilder(1, "file:///foo/bar.txt")
+                .withOrgId("orgID1").withId("key2")
+                .withTimestamps(ImmutableMap.of(State.NEW, 20L)).build();
+        Set<TypedTuple<String>> window = new LinkedHashSet<>(Arrays.asList(
+                new DefaultTypedTuple<>("key3", 30.0), new DefaultTypedTuple<>("key2", 20.0)));
+        when(timelines.reverseRangeByScoreWithScores("requests-timeline:orgID1",
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, 200)).thenReturn(window);
+        when(hashOps.multiGet("requests:orgID1", Arrays.asList("key3", "key2")))
+                .thenReturn(Arrays.asList(newest, middle));
+
+        RequestPage page = repository.find(new RequestQuery.RequestQueryBuilder(ImmutableSet.of("orgID1"))
+                .withLimit(1)
+                .build());
+
+        assertThat(page.getItems(), equalTo(Arrays.asList(newest)));
+        assertThat(page.getNextCursor().isPresent(), equalTo(true));
+        verify(hashOps, never()).entries(any());
+    }
 
-        verify(hashOps).delete(Mockito.eq(orgId + ":" + key));
+    @SuppressWarnings("unchecked")
+    private static Cursor<Map.Entry<String, Request>> cursorOf(Map<String, Request> entries) {
+        Iterator<Map.Entry<String, Request>> iterator = entries.entrySet().iterator();
+        Cursor<Map.Entry<String, Request>> cursor = Mockito.mock(Cursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> iterator.next());
+        return cursor;
     }
 }
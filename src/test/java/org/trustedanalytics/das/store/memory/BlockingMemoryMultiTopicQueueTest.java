@@ -17,14 +17,22 @@ package org.trustedanalytics.das.store.memory;
 
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import org.trustedanalytics.das.parser.Request;
 import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.QueueFullException;
 
 /**
  * 
@@ -33,6 +41,9 @@ import org.trustedanalytics.das.store.BlockingRequestIdQueue;
  */
 public class BlockingMemoryMultiTopicQueueTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void init() {}
 
@@ -74,4 +85,55 @@ public class BlockingMemoryMultiTopicQueueTest {
         topic1.take();
     }
 
+    @Test
+    public void offer_fullQueueWithRejectPolicy_throwsAndCounts() {
+        BlockingMemoryMultiTopicRequestIdQueue queue =
+                new BlockingMemoryMultiTopicRequestIdQueue(1, OverflowPolicy.REJECT, 0, null);
+        queue.offer("request#1");
+
+        try {
+            queue.offer("request#2");
+            fail("Expected QueueFullException");
+        } catch (QueueFullException e) {
+            assertThat(e.getRejected(), equalTo(Collections.singletonList("request#2")));
+        }
+        assertThat(queue.getRejectedCount(), equalTo(1L));
+        assertThat(queue.size(), equalTo(1L));
+    }
+
+    @Test
+    public void offerAll_fullQueueWithBlockPolicy_rejectsItemsThatDidNotFitInTime() {
+        BlockingMemoryMultiTopicRequestIdQueue queue =
+                new BlockingMemoryMultiTopicRequestIdQueue(2, OverflowPolicy.BLOCK, 50, null);
+
+        try {
+            queue.offerAll(Arrays.asList("request#1", "request#2", "request#3", "request#4"));
+            fail("Expected QueueFullException");
+        } catch (QueueFullException e) {
+            assertThat(e.getRejected(), equalTo(Arrays.asList("request#3", "request#4")));
+        }
+        assertThat(queue.getRejectedCount(), equalTo(2L));
+    }
+
+    @Test
+    public void offer_fullQueueWithSpillPolicy_keepsOrder() throws Exception {
+        try (BlockingMemoryMultiTopicRequestIdQueue queue = new BlockingMemoryMultiTopicRequestIdQueue(
+                2, OverflowPolicy.SPILL, 0, temporaryFolder.getRoot().toPath())) {
+            for (int i = 0; i < 5; i++) {
+                queue.offer("request#" + i);
+            }
+            assertThat(queue.getSpilledCount(), equalTo(3L));
+            assertThat(queue.size(), equalTo(5L));
+
+            queue.offer("{\"title\":\"\u017c\u00f3\u0142w\"}");
+            List<String> taken = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                taken.add(queue.take());
+            }
+            assertThat(taken, equalTo(Arrays.asList("request#0", "request#1", "request#2", "request#3", "request#4",
+                    "{\"title\":\"\u017c\u00f3\u0142w\"}")));
+            assertThat(queue.size(), equalTo(0L));
+        }
+    }
+
 }
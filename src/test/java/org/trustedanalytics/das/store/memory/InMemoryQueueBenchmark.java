@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.memory;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.QueueFullException;
+
+/**
+ * Throughput of in-memory queues with several producers and consumers. Not run with tests,
+ * start it with main method from test classpath.
+ * <p>
+ * Neither side blocks, so that iteration can end at any moment: full queue rejects the item and
+ * consumer returns empty batch when there is nothing to take.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryQueueBenchmark {
+
+    private static final int CAPACITY = 65536;
+
+    @Param({"ARRAY", "RING_BUFFER_BUSY_SPIN", "RING_BUFFER_YIELD", "RING_BUFFER_PARK"})
+    public String queueType;
+
+    private BlockingRequestIdQueue queue;
+
+    @Setup
+    public void setUp() {
+        if (queueType.startsWith("RING_BUFFER_")) {
+            WaitStrategy waitStrategy = WaitStrategy.valueOf(queueType.substring("RING_BUFFER_".length()));
+            queue = new RingBufferRequestIdQueue(CAPACITY, waitStrategy, 0);
+        } else {
+            queue = new BlockingMemoryMultiTopicRequestIdQueue(CAPACITY, OverflowPolicy.REJECT, 0, null);
+        }
+    }
+
+    @Benchmark
+    @Group("offerTake")
+    @GroupThreads(4)
+    public boolean offer() {
+        try {
+            queue.offer("request-id");
+            return true;
+        } catch (QueueFullException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    @Group("offerTake")
+    @GroupThreads(4)
+    public Object take() throws InterruptedException {
+        return queue.drainTo(1, 0, TimeUnit.MILLISECONDS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(InMemoryQueueBenchmark.class.getSimpleName()).build()).run();
+    }
+}
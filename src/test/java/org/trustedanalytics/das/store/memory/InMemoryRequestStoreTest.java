@@ -15,6 +15,7 @@
  */
 package org.trustedanalytics.das.store.memory;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
@@ -22,11 +23,25 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import com.google.common.collect.ImmutableMap;
 import org.junit.Before;
 import org.junit.Test;
 
 import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.parser.State;
+import org.trustedanalytics.das.store.RequestPage;
+import org.trustedanalytics.das.store.RequestQuery;
 import org.trustedanalytics.das.store.RequestStore;
 
 public class InMemoryRequestStoreTest {
@@ -81,4 +96,91 @@ public class InMemoryRequestStoreTest {
         
         assertThat(store.getAll(orgId).keySet(), empty());
     }
+
+    @Test
+    public void put_organizationChanged_movedBetweenOrganizations() throws URISyntaxException {
+        Request request =
+                new Request.RequestBuilder(1, "file:///foo/bar.txt").withOrgId("orgId1").withId("key1").build();
+        store.put(request);
+        Request moved = new Request.RequestBuilder(request).withOrgId("orgId2").build();
+        store.put(moved);
+
+        assertThat(store.getAll("orgId1").keySet(), empty());
+        assertThat(store.getAll("orgId2").values(), containsInAnyOrder(moved));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void delete_notExisting_throwsException() {
+        store.delete("key1");
+    }
+
+    @Test
+    public void concurrentAccess_indexesStayConsistent() throws Exception {
+        int threads = 8;
+        int requestsPerThread = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < requestsPerThread; i++) {
+                    String id = thread + "-" + i;
+                    Request request = new Request.RequestBuilder(thread, "file:///foo/bar.txt")
+                            .withOrgId("orgId" + (i % 4)).withId(id).build();
+                    store.put(request);
+                    store.put(request.changeState(State.VALIDATED));
+                    assertThat(store.get(id).get().getState(), equalTo(State.VALIDATED));
+                    store.getAll("orgId" + (i % 4));
+                    if (i % 2 == 0) {
+                        store.delete(id);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        int stored = 0;
+        for (int org = 0; org < 4; org++) {
+            for (Request request : store.getAll("orgId" + org).values()) {
+                assertThat(request.getOrgUUID(), equalTo("orgId" + org));
+                assertThat(store.get(request.getId()).get(), equalTo(request));
+                stored++;
+            }
+        }
+        assertThat(stored, equalTo(threads * requestsPerThread / 2));
+    }
+
+    @Test
+    public void find_pagedByCursor_returnsMatchingNewestFirst() throws URISyntaxException {
+        for (int i = 1; i <= 5; i++) {
+            store.put(new Request.RequestBuilder(i, "file:///foo/bar.txt")
+                    .withOrgId(i % 2 == 0 ? "orgId1" : "orgId2")
+                    .withId("key" + i)
+                    .withCategory(i == 3 ? "health" : "other")
+                    .withTimestamps(ImmutableMap.of(State.NEW, (long) i))
+                    .build());
+        }
+        RequestQuery.RequestQueryBuilder query =
+                new RequestQuery.RequestQueryBuilder(Arrays.asList("orgId1", "orgId2"))
+                        .withCategory("other")
+                        .withLimit(2);
+
+        RequestPage first = store.find(query.build());
+        RequestPage second = store.find(query.withCursor(first.getNextCursor().get()).build());
+
+        assertThat(ids(first), contains("key5", "key4"));
+        assertThat(ids(second), contains("key2", "key1"));
+        assertThat(second.getNextCursor().isPresent(), equalTo(false));
+    }
+
+    private static List<String> ids(RequestPage page) {
+        return page.getItems().stream().map(Request::getId).collect(Collectors.toList());
+    }
 }
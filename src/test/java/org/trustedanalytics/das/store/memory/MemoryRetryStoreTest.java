@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.memory;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.trustedanalytics.das.store.ScheduledRetry;
+
+public class MemoryRetryStoreTest {
+
+    private static final long TICK = 10;
+
+    private MemoryRetryStore store;
+
+    private long now;
+
+    @Before
+    public void setUp() {
+        store = new MemoryRetryStore(TICK, 8);
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void takeDue_onlyRetriesDueByThen() {
+        store.schedule("downloading", "id1", now + 50);
+        store.schedule("downloading", "id2", now + 150);
+
+        assertThat(store.takeDue(now + 20, 10), empty());
+        assertThat(store.takeDue(now + 60, 10), contains(new ScheduledRetry("downloading", "id1")));
+        assertEquals(1, store.size());
+        assertThat(store.takeDue(now + 160, 10), contains(new ScheduledRetry("downloading", "id2")));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void takeDue_laterTurnOfWheelStaysInSlot() {
+        // 8 slots of 10 ms, retries 80 ms apart share the slot
+        store.schedule("parsing", "id1", now + 30);
+        store.schedule("parsing", "id2", now + 110);
+
+        assertThat(store.takeDue(now + 50, 10), contains(new ScheduledRetry("parsing", "id1")));
+        assertThat(store.takeDue(now + 100, 10), empty());
+        assertThat(store.takeDue(now + 120, 10), contains(new ScheduledRetry("parsing", "id2")));
+    }
+
+    @Test
+    public void takeDue_afterLongPause_takesAllOverdue() {
+        store.schedule("parsing", "id1", now + 30);
+        store.schedule("parsing", "id2", now + 110);
+        store.schedule("parsing", "id3", now + 10000);
+
+        assertThat(store.takeDue(now + 1000, 10), contains(
+                new ScheduledRetry("parsing", "id1"), new ScheduledRetry("parsing", "id2")));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void takeDue_limited_restTakenNextTime() {
+        store.schedule("parsing", "id1", now + 20);
+        store.schedule("parsing", "id2", now + 20);
+        store.schedule("parsing", "id3", now + 20);
+
+        assertEquals(2, store.takeDue(now + 30, 2).size());
+        assertEquals(1, store.takeDue(now + 30, 2).size());
+    }
+
+    @Test
+    public void schedule_overdue_takenOnNextTick() {
+        store.schedule("parsing", "id1", now - 1000);
+
+        assertThat(store.takeDue(now + TICK, 10), contains(new ScheduledRetry("parsing", "id1")));
+    }
+}
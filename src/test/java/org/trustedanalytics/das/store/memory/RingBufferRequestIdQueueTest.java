@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.store.memory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.trustedanalytics.das.store.QueueFullException;
+
+public class RingBufferRequestIdQueueTest {
+
+    @Test
+    public void capacity_roundedUpToPowerOfTwo() {
+        assertThat(new RingBufferRequestIdQueue(1000, WaitStrategy.PARK, 0).getCapacity(), equalTo(1024));
+        assertThat(new RingBufferRequestIdQueue(8, WaitStrategy.PARK, 0).getCapacity(), equalTo(8));
+    }
+
+    @Test
+    public void take_returnsItemsInOrderAcrossRounds() throws InterruptedException {
+        RingBufferRequestIdQueue queue = new RingBufferRequestIdQueue(4, WaitStrategy.BUSY_SPIN, 0);
+
+        for (int round = 0; round < 3; round++) {
+            queue.offerAll(Arrays.asList("a" + round, "b" + round, "c" + round));
+            assertThat(queue.take(), equalTo("a" + round));
+            assertThat(queue.drainTo(10, 0, TimeUnit.MILLISECONDS),
+                    equalTo(Arrays.asList("b" + round, "c" + round)));
+        }
+        assertThat(queue.size(), equalTo(0L));
+    }
+
+    @Test
+    public void offer_fullQueue_rejectedAfterTimeout() {
+        RingBufferRequestIdQueue queue = new RingBufferRequestIdQueue(2, WaitStrategy.PARK, 10);
+        queue.offerAll(Arrays.asList("a", "b"));
+
+        try {
+            queue.offer("c");
+            fail("Expected QueueFullException");
+        } catch (QueueFullException e) {
+            assertThat(e.getRejected(), equalTo(Collections.singletonList("c")));
+        }
+        assertThat(queue.getRejectedCount(), equalTo(1L));
+    }
+
+    @Test
+    public void drainTo_emptyQueue_returnsEmptyAfterTimeout() throws InterruptedException {
+        RingBufferRequestIdQueue queue = new RingBufferRequestIdQueue(2, WaitStrategy.PARK, 0);
+
+        assertThat(queue.drainTo(10, 10, TimeUnit.MILLISECONDS), empty());
+    }
+
+    @Test
+    public void manyProducersAndConsumers_everyItemTakenOnce() throws InterruptedException {
+        int producers = 4;
+        int consumers = 4;
+        int itemsPerProducer = 20000;
+        RingBufferRequestIdQueue queue = new RingBufferRequestIdQueue(64, WaitStrategy.YIELD, 10000);
+        Set<String> taken = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(producers * itemsPerProducer);
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+
+        for (int c = 0; c < consumers; c++) {
+            executor.execute(() -> {
+                try {
+                    while (true) {
+                        assertTrue(taken.add(queue.take()));
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            executor.execute(() -> {
+                for (int i = 0; i < itemsPerProducer; i++) {
+                    queue.offer(producer + ":" + i);
+                }
+            });
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdownNow();
+        assertThat(taken.size(), equalTo(producers * itemsPerProducer));
+        assertThat(queue.size(), equalTo(0L));
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.trustedanalytics.das.dataflow.QueueKeyStrategy;
+import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.parser.State;
+import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.DeadLetter;
+import org.trustedanalytics.das.store.DeadLetterStore;
+import org.trustedanalytics.das.store.RequestStore;
+import org.trustedanalytics.das.store.memory.InMemoryDeadLetterStore;
+
+import com.google.common.collect.ImmutableMap;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeadLetterReplayerTest {
+
+    @Mock
+    RequestStore requestStore;
+
+    @Mock
+    BlockingRequestIdQueue toDownload;
+
+    InMemoryDeadLetterStore deadLetters;
+
+    DeadLetterReplayer replayer;
+
+    @Before
+    public void setUp() {
+        deadLetters = new InMemoryDeadLetterStore();
+        replayer = new DeadLetterReplayer(deadLetters, requestStore, ImmutableMap.of("downloading", toDownload), 1000,
+                QueueKeyStrategy.ORG);
+    }
+
+    @Test
+    public void replay_restoresStateAndQueuesRequest() {
+        Request failed = new Request.RequestBuilder(0, "http://example.com").withId("id1").withOrgId("org1")
+                .withState(State.VALIDATED).build().nextAttempt().changeState(State.ERROR);
+        when(requestStore.get("id1")).thenReturn(Optional.of(failed));
+        deadLetters.add(new DeadLetter("id1", "org1", "downloading", State.VALIDATED, "error", 2, 1));
+
+        List<String> replayed = replayer.replay("downloading", Collections.singletonList("org1"), 10);
+
+        Assert.assertEquals(Collections.singletonList("id1"), replayed);
+        ArgumentCaptor<Request> stored = ArgumentCaptor.forClass(Request.class);
+        verify(requestStore).put(stored.capture());
+        Assert.assertEquals(State.VALIDATED, stored.getValue().getState());
+        Assert.assertEquals(0, stored.getValue().getAttempts());
+        verify(toDownload).offer("id1", "org1");
+        Assert.assertEquals(0, deadLetters.size("downloading"));
+    }
+
+    @Test
+    public void replay_onlyRequestedOrgs_oldestFirst_upToLimit() {
+        Request request = new Request.RequestBuilder(0, "http://example.com").build();
+        when(requestStore.get(any(String.class))).thenReturn(Optional.of(request));
+        deadLetters.add(new DeadLetter("id3", "org1", "downloading", State.VALIDATED, "error", 1, 3));
+        deadLetters.add(new DeadLetter("id1", "org1", "downloading", State.VALIDATED, "error", 1, 1));
+        deadLetters.add(new DeadLetter("id2", "org2", "downloading", State.VALIDATED, "error", 1, 2));
+
+        List<String> replayed = replayer.replay("downloading", Arrays.asList("org1"), 1);
+
+        Assert.assertEquals(Collections.singletonList("id1"), replayed);
+        Assert.assertEquals(2, deadLetters.size("downloading"));
+    }
+
+    @Test
+    public void replay_deletedRequest_dropsDeadLetter() {
+        when(requestStore.get("id1")).thenReturn(Optional.empty());
+        deadLetters.add(new DeadLetter("id1", "org1", "downloading", State.VALIDATED, "error", 1, 1));
+
+        List<String> replayed = replayer.replay("downloading", Collections.singletonList("org1"), 10);
+
+        Assert.assertTrue(replayed.isEmpty());
+        verify(toDownload, never()).offer(any(String.class), any(String.class));
+        Assert.assertEquals(0, deadLetters.size("downloading"));
+    }
+
+    @Test
+    public void replay_letterTakenByOtherReplay_skipsIt() {
+        DeadLetterStore store = mock(DeadLetterStore.class);
+        DeadLetter letter = new DeadLetter("id1", "org1", "downloading", State.VALIDATED, "error", 1, 1);
+        when(store.getAll("downloading", Collections.singletonList("org1")))
+                .thenReturn(Collections.singletonList(letter));
+        when(store.remove(letter)).thenReturn(false);
+        replayer = new DeadLetterReplayer(store, requestStore, ImmutableMap.of("downloading", toDownload), 1000,
+                QueueKeyStrategy.ORG);
+
+        List<String> replayed = replayer.replay("downloading", Collections.singletonList("org1"), 10);
+
+        Assert.assertTrue(replayed.isEmpty());
+        verify(requestStore, never()).put(any(Request.class));
+        verify(toDownload, never()).offer(any(String.class), any(String.class));
+    }
+
+    @Test
+    public void replay_queueFails_keepsDeadLetter() {
+        Request request = new Request.RequestBuilder(0, "http://example.com").withOrgId("org1").build();
+        when(requestStore.get("id1")).thenReturn(Optional.of(request));
+        doThrow(new IllegalStateException("queue unavailable")).when(toDownload).offer("id1", "org1");
+        deadLetters.add(new DeadLetter("id1", "org1", "downloading", State.VALIDATED, "error", 1, 1));
+
+        try {
+            replayer.replay("downloading", Collections.singletonList("org1"), 10);
+            Assert.fail("Queue failure not reported");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1, deadLetters.size("downloading"));
+        }
+    }
+
+    @Test
+    public void getAll_onlyRequestedOrgs_oldestFirst() {
+        deadLetters.add(new DeadLetter("id3", "org1", "downloading", State.VALIDATED, "error", 1, 3));
+        deadLetters.add(new DeadLetter("id2", "org2", "downloading", State.VALIDATED, "error", 1, 2));
+        deadLetters.add(new DeadLetter("id1", "org3", "downloading", State.VALIDATED, "error", 1, 1));
+
+        List<DeadLetter> letters = replayer.getAll("downloading", Arrays.asList("org1", "org2"));
+
+        Assert.assertEquals(Arrays.asList("id2", "id3"),
+                letters.stream().map(DeadLetter::getRequestId).collect(Collectors.toList()));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void getAll_unknownStage_throws() {
+        replayer.getAll("uploading", Collections.singletonList("org1"));
+    }
+}
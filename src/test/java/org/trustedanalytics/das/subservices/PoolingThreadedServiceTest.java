@@ -16,24 +16,51 @@
 package org.trustedanalytics.das.subservices;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.trustedanalytics.das.parser.State.ERROR;
+import static org.trustedanalytics.das.subservices.PoolingThreadedService.blocking;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ServiceManager;
 import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.parser.State;
 import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.DeadLetter;
+import org.trustedanalytics.das.store.DeadLetterStore;
+import org.trustedanalytics.das.store.RequestMessage;
+import org.trustedanalytics.das.store.RetryStore;
+import org.trustedanalytics.das.subservices.PoolingThreadedService.PoolingThreadedServiceBuilder;
 import org.trustedanalytics.das.subservices.downloader.DownloadStatus;
 import org.trustedanalytics.das.subservices.downloader.RestDownloaderClient;
 import org.trustedanalytics.das.store.RequestStore;
 
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.web.client.RestClientException;
@@ -44,6 +71,8 @@ public class PoolingThreadedServiceTest {
 
     PoolingThreadedService poolingService;
 
+    private final RequestMessage.Codec messages = new RequestMessage.Codec(new ObjectMapper());
+
     @Mock
     RequestStore store;
 
@@ -53,9 +82,16 @@ public class PoolingThreadedServiceTest {
     @Mock
     RestDownloaderClient client;
 
+    @Mock
+    RetryStore retryStore;
+
+    @Mock
+    DeadLetterStore deadLetters;
+
     @Before
     public void setUp() {
-        poolingService = new PoolingThreadedService(toDownload, client::download, "download", store);
+        poolingService = new PoolingThreadedServiceBuilder(toDownload, blocking(client::download), "download", store,
+                messages).build();
         serviceManager = new ServiceManager(Lists.newArrayList(poolingService));
     }
 
@@ -63,10 +99,10 @@ public class PoolingThreadedServiceTest {
     public void download_test_success() throws InterruptedException {
         Request request = new Request.RequestBuilder(0, "").build();
         when(client.download(request)).thenReturn(new DownloadStatus());
-        when(toDownload.take()).thenReturn(request.getId());
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(request.getId());
 
         serviceManager.startAsync();
-        verify(toDownload, timeout(1000).atLeastOnce()).take();
+        verify(toDownload, timeout(1000).atLeastOnce()).poll(anyLong(), any(TimeUnit.class));
         Assert.assertTrue(poolingService.isRunning());
 
     }
@@ -75,13 +111,243 @@ public class PoolingThreadedServiceTest {
     public void download_downloader_unavailable_failover() throws InterruptedException, URISyntaxException {
         Request request = new Request.RequestBuilder(0, "").build();
         when(client.download(request)).thenThrow(new RestClientException(""));
-        when(toDownload.take()).thenReturn(request.getId());
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(request.getId());
 
         serviceManager.startAsync();
-        verify(toDownload, timeout(1000).atLeastOnce()).take();
+        verify(toDownload, timeout(1000).atLeastOnce()).poll(anyLong(), any(TimeUnit.class));
         Assert.assertTrue(poolingService.isRunning());
     }
 
+    @Test
+    public void asyncHandler_limitsRequestsInFlight() throws InterruptedException {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(request.getId());
+        when(store.get(request.getId())).thenReturn(Optional.of(request));
+        List<CompletableFuture<?>> calls = new CopyOnWriteArrayList<>();
+        AtomicBoolean completeImmediately = new AtomicBoolean();
+        PoolingThreadedService asyncService = new PoolingThreadedServiceBuilder(toDownload, r -> {
+            CompletableFuture<DownloadStatus> call = new CompletableFuture<>();
+            if (completeImmediately.get()) {
+                call.complete(null);
+            } else {
+                calls.add(call);
+            }
+            return call;
+        }, "download", store, messages).withMaxInFlight(3).build();
+        serviceManager = new ServiceManager(Lists.newArrayList(asyncService));
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000).times(3)).poll(anyLong(), any(TimeUnit.class));
+        Thread.sleep(100);
+        verify(toDownload, times(3)).poll(anyLong(), any(TimeUnit.class));
+
+        calls.get(0).complete(null);
+        verify(toDownload, timeout(1000).times(4)).poll(anyLong(), any(TimeUnit.class));
+        completeImmediately.set(true);
+        calls.forEach(call -> call.complete(null));
+    }
+
+    @Test
+    public void asyncHandler_recordsOutcomeOffCompletingThread() throws InterruptedException {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(request.getId()).thenReturn(null);
+        when(store.get(request.getId())).thenReturn(Optional.of(request));
+        CompletableFuture<DownloadStatus> call = new CompletableFuture<>();
+        List<String> ackingThreads = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> ackingThreads.add(Thread.currentThread().getName()))
+                .when(toDownload).ack(anyString());
+        PoolingThreadedService asyncService = new PoolingThreadedServiceBuilder(toDownload, r -> call, "download", store,
+                messages)
+                .withMaxInFlight(3)
+                .build();
+        serviceManager = new ServiceManager(Lists.newArrayList(asyncService));
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000).atLeast(2)).poll(anyLong(), any(TimeUnit.class));
+        call.complete(null);
+
+        verify(toDownload, timeout(1000)).ack("id");
+        Assert.assertTrue(ackingThreads.get(0).startsWith("download-completion-"));
+    }
+
+    @Test
+    public void batch_readsRequestsWithSingleStoreCall() throws InterruptedException {
+        Request request1 = new Request.RequestBuilder(0, "").withId("id1").build();
+        Request request2 = new Request.RequestBuilder(0, "").withId("id2").build();
+        when(toDownload.drainTo(eq(10), anyLong(), any(TimeUnit.class)))
+                .thenReturn(Arrays.asList("id1", "id2", "missing"))
+                .thenReturn(Collections.emptyList());
+        when(store.multiGet(Arrays.asList("id1", "id2", "missing")))
+                .thenReturn(ImmutableMap.of("id1", request1, "id2", request2));
+        List<Request> processed = new CopyOnWriteArrayList<>();
+        PoolingThreadedService batchService = new PoolingThreadedServiceBuilder(toDownload, r -> {
+            processed.add(r);
+            return CompletableFuture.completedFuture(null);
+        }, "download", store, messages).withBatchSize(10).build();
+        serviceManager = new ServiceManager(Lists.newArrayList(batchService));
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000).atLeast(2)).drainTo(eq(10), anyLong(), any(TimeUnit.class));
+
+        Assert.assertEquals(Arrays.asList(request1, request2), processed);
+        verify(store, never()).get(any(String.class));
+        verify(toDownload, never()).poll(anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void snapshotInMessage_skipsStore() throws InterruptedException {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(messages.encode(request));
+        when(store.existing(Collections.singletonList("id"))).thenReturn(Collections.singleton("id"));
+
+        serviceManager.startAsync();
+        verify(client, timeout(1000).atLeastOnce()).download(request);
+        verify(store, never()).get(any(String.class));
+    }
+
+    @Test
+    public void snapshotOfDeletedRequest_isAcknowledgedWithoutProcessing() throws InterruptedException {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+        String message = messages.encode(request);
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(message).thenReturn(null);
+        when(store.existing(Collections.singletonList("id"))).thenReturn(Collections.emptySet());
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000)).ack(message);
+        verify(client, never()).download(any(Request.class));
+        verify(store, never()).put(any(Request.class));
+    }
+
+    @Test
+    public void staleSnapshot_requestReadFromStore() throws Exception {
+        Request snapshot = new Request.RequestBuilder(0, "").withId("id").build();
+        Request stored = snapshot.changeState(State.DOWNLOADED);
+        ObjectNode envelope = (ObjectNode) new ObjectMapper().readTree(messages.encode(snapshot));
+        envelope.put("timestamp", 1);
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(envelope.toString()).thenReturn(null);
+        when(store.get("id")).thenReturn(Optional.of(stored));
+
+        serviceManager.startAsync();
+        verify(client, timeout(1000)).download(stored);
+        verify(client, never()).download(snapshot);
+    }
+
+    @Test
+    public void batch_snapshotsOfDeletedRequests_areSkipped() throws InterruptedException {
+        Request request1 = new Request.RequestBuilder(0, "").withId("id1").build();
+        Request request2 = new Request.RequestBuilder(0, "").withId("id2").build();
+        String deleted = messages.encode(request2);
+        when(toDownload.drainTo(eq(10), anyLong(), any(TimeUnit.class)))
+                .thenReturn(Arrays.asList(messages.encode(request1), deleted))
+                .thenReturn(Collections.emptyList());
+        when(store.existing(Arrays.asList("id1", "id2"))).thenReturn(Collections.singleton("id1"));
+        List<Request> processed = new CopyOnWriteArrayList<>();
+        PoolingThreadedService batchService = new PoolingThreadedServiceBuilder(toDownload, r -> {
+            processed.add(r);
+            return CompletableFuture.completedFuture(null);
+        }, "download", store, messages).withBatchSize(10).build();
+        serviceManager = new ServiceManager(Lists.newArrayList(batchService));
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000)).ack(deleted);
+
+        Assert.assertEquals(Collections.singletonList(request1), processed);
+        verify(store, never()).multiGet(any());
+    }
+
+    @Test
+    public void processedRequest_isAcknowledged() throws InterruptedException {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(request.getId()).thenReturn(null);
+        when(store.get(request.getId())).thenReturn(Optional.of(request));
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000)).ack(request.getId());
+        verify(toDownload, never()).nack(any(String.class));
+    }
+
+    @Test
+    public void failedRequest_errorStored_isAcknowledged() throws InterruptedException {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+        when(client.download(request)).thenThrow(new RestClientException(""));
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(request.getId()).thenReturn(null);
+        when(store.get(request.getId())).thenReturn(Optional.of(request));
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000)).ack(request.getId());
+        verify(store).put(any(Request.class));
+    }
+
+    @Test
+    public void failedRequest_errorNotStored_isDeliveredAgain() throws InterruptedException {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+        when(client.download(request)).thenThrow(new RestClientException(""));
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(request.getId()).thenReturn(null);
+        when(store.get(request.getId())).thenReturn(Optional.of(request));
+        doThrow(new IllegalStateException("store unavailable")).when(store).put(any(Request.class));
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000)).nack(request.getId());
+        verify(toDownload, never()).ack(any(String.class));
+    }
+
+    @Test
+    public void requestNotInStore_isAcknowledged() throws InterruptedException {
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn("missing").thenReturn(null);
+        when(store.get("missing")).thenReturn(Optional.empty());
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000)).ack("missing");
+        verify(client, never()).download(any(Request.class));
+    }
+
+    @Test
+    public void failedRequest_attemptsLeft_isScheduledForRetry() throws InterruptedException {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+        when(client.download(request)).thenThrow(new RestClientException(""));
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(request.getId()).thenReturn(null);
+        when(store.get(request.getId())).thenReturn(Optional.of(request));
+        useRetryingService(new RetryPolicy(2, 1000, 1000, 2, 0));
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000)).ack(request.getId());
+        verify(retryStore).schedule(eq("download"), eq(request.getId()), anyLong());
+        ArgumentCaptor<Request> stored = ArgumentCaptor.forClass(Request.class);
+        verify(store).put(stored.capture());
+        Assert.assertEquals(1, stored.getValue().getAttempts());
+        Assert.assertEquals(request.getState(), stored.getValue().getState());
+    }
+
+    @Test
+    public void failedRequest_lastAttempt_isLeftInErrorStateWithDeadLetter() throws InterruptedException {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build().nextAttempt();
+        when(client.download(request)).thenThrow(new RestClientException(""));
+        when(toDownload.poll(anyLong(), any(TimeUnit.class))).thenReturn(request.getId()).thenReturn(null);
+        when(store.get(request.getId())).thenReturn(Optional.of(request));
+        useRetryingService(new RetryPolicy(2, 1000, 1000, 2, 0));
+
+        serviceManager.startAsync();
+        verify(toDownload, timeout(1000)).ack(request.getId());
+        verify(retryStore, never()).schedule(anyString(), anyString(), anyLong());
+        ArgumentCaptor<Request> stored = ArgumentCaptor.forClass(Request.class);
+        verify(store).put(stored.capture());
+        Assert.assertEquals(ERROR, stored.getValue().getState());
+        ArgumentCaptor<DeadLetter> letter = ArgumentCaptor.forClass(DeadLetter.class);
+        verify(deadLetters).add(letter.capture());
+        Assert.assertEquals("download", letter.getValue().getStage());
+        Assert.assertEquals(request.getState(), letter.getValue().getState());
+        Assert.assertEquals(2, letter.getValue().getAttempts());
+    }
+
+    private void useRetryingService(RetryPolicy retryPolicy) {
+        poolingService = new PoolingThreadedServiceBuilder(toDownload, blocking(client::download), "download", store,
+                messages)
+                .withFailures(new FailedRequests(store, retryPolicy,
+                        new RetryScheduler(retryStore, ImmutableMap.of("download", toDownload), 100), deadLetters))
+                .build();
+        serviceManager = new ServiceManager(Lists.newArrayList(poolingService));
+    }
+
     @After
     public void tearDown() {
         serviceManager.stopAsync();
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletionException;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.trustedanalytics.das.parser.Request;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 1000, 5000, 2, 0.5);
+
+    @Test
+    public void delayMillis_growsExponentiallyUpToMax() {
+        assertEquals(1000, new RetryPolicy(10, 1000, 5000, 2, 0).delayMillis(1));
+        assertEquals(2000, new RetryPolicy(10, 1000, 5000, 2, 0).delayMillis(2));
+        assertEquals(4000, new RetryPolicy(10, 1000, 5000, 2, 0).delayMillis(3));
+        assertEquals(5000, new RetryPolicy(10, 1000, 5000, 2, 0).delayMillis(4));
+    }
+
+    @Test
+    public void delayMillis_jitterIsRandomFractionOfDelay() {
+        assertEquals(1000, policy.delayMillis(2, 0));
+        assertEquals(1500, policy.delayMillis(2, 0.5));
+        assertEquals(2000, policy.delayMillis(2, 1));
+    }
+
+    @Test
+    public void shouldRetry_untilMaxAttempts() {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+        Exception error = new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+
+        assertTrue(policy.shouldRetry(request, error));
+        assertTrue(policy.shouldRetry(request.nextAttempt(), error));
+        assertFalse(policy.shouldRetry(request.nextAttempt().nextAttempt(), error));
+    }
+
+    @Test
+    public void shouldRetry_clientErrors_onlyThrottling() {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+
+        assertFalse(policy.shouldRetry(request, new HttpClientErrorException(HttpStatus.BAD_REQUEST)));
+        assertTrue(policy.shouldRetry(request,
+                new CompletionException(new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS))));
+    }
+
+    @Test
+    public void none_neverRetries() {
+        Request request = new Request.RequestBuilder(0, "").withId("id").build();
+
+        assertFalse(RetryPolicy.NONE.shouldRetry(request, new RuntimeException()));
+    }
+}
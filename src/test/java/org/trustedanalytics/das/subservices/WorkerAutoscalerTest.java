@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.trustedanalytics.das.store.BlockingRequestIdQueue;
+import org.trustedanalytics.das.store.RequestMessage;
+import org.trustedanalytics.das.store.RequestStore;
+import org.trustedanalytics.das.subservices.PipelineProperties.AutoscaleProperties;
+import org.trustedanalytics.das.subservices.PoolingThreadedService.PoolingThreadedServiceBuilder;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class WorkerAutoscalerTest {
+
+    private static final RequestMessage.Codec MESSAGES = new RequestMessage.Codec(new ObjectMapper());
+
+    private WorkerAutoscaler autoscaler;
+
+    @Before
+    public void setUp() {
+        autoscaler = new WorkerAutoscaler(ImmutableList.of(), new AutoscaleProperties());
+    }
+
+    @Test
+    public void desiredWorkers_backlogNotDrainedInTime_addsWorker() {
+        // 1000 requests * 1s / 4 workers = 250s, above 60s target
+        assertEquals(5, autoscaler.desiredWorkers(4, 1, 1000, 1000, 1.0));
+    }
+
+    @Test
+    public void desiredWorkers_backlogDrainedInTime_keepsWorkers() {
+        assertEquals(4, autoscaler.desiredWorkers(4, 1, 100, 100, 1.0));
+    }
+
+    @Test
+    public void desiredWorkers_inFlightCountsAsCapacity() {
+        assertEquals(4, autoscaler.desiredWorkers(4, 10, 1000, 1000, 1.0));
+    }
+
+    @Test
+    public void desiredWorkers_unknownBacklogAndBusyWorkers_addsWorker() {
+        assertEquals(3, autoscaler.desiredWorkers(2, 1, -1, 100, 0.9));
+    }
+
+    @Test
+    public void desiredWorkers_emptyQueueAndIdleWorkers_removesWorker() {
+        assertEquals(3, autoscaler.desiredWorkers(4, 1, 0, 100, 0.1));
+    }
+
+    @Test
+    public void resize_keepsWithinBounds() throws InterruptedException {
+        BlockingRequestIdQueue queue = mock(BlockingRequestIdQueue.class);
+        when(queue.poll(anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+            Thread.sleep(10);
+            return null;
+        });
+        StageMetrics metrics = new StageMetrics();
+        WorkerPool pool = new WorkerPool("test", queue,
+                () -> new PoolingThreadedServiceBuilder(queue, request -> null, "test", mock(RequestStore.class),
+                        MESSAGES)
+                        .withMetrics(metrics)
+                        .build(),
+                metrics, 2, 1, 3, 1);
+        pool.startAsync().awaitRunning();
+        assertEquals(2, pool.size());
+
+        assertEquals(3, pool.resize(10));
+        assertEquals(3, pool.size());
+        assertEquals(1, pool.resize(0));
+        assertEquals(1, pool.size());
+        pool.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void resize_removedWorkerWaitingOnEmptyQueue_stops() throws Exception {
+        BlockingRequestIdQueue queue = mock(BlockingRequestIdQueue.class);
+        when(queue.poll(anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+            TimeUnit unit = (TimeUnit) invocation.getArguments()[1];
+            unit.sleep((Long) invocation.getArguments()[0]);
+            return null;
+        });
+        StageMetrics metrics = new StageMetrics();
+        List<PoolingThreadedService> workers = new CopyOnWriteArrayList<>();
+        WorkerPool pool = new WorkerPool("test", queue, () -> {
+            PoolingThreadedService worker = new PoolingThreadedServiceBuilder(queue, request -> null, "test",
+                    mock(RequestStore.class), MESSAGES).withMetrics(metrics).build();
+            workers.add(worker);
+            return worker;
+        }, metrics, 2, 1, 2, 1);
+        pool.startAsync().awaitRunning();
+
+        pool.resize(1);
+
+        workers.get(1).awaitTerminated(3, TimeUnit.SECONDS);
+        pool.stopAsync().awaitTerminated();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices.callbacks;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+import org.springframework.web.util.UriComponentsBuilder;
+
+public class CallbackSignerTest {
+
+    private static final String CALLBACKS_URL = "http://das/rest/das/callbacks/{app}/{requestId}";
+
+    private final CallbackSigner signer = new CallbackSigner("secret");
+
+    @Test
+    public void getCallbackUrl_signatureVerified() {
+        String url = signer.getCallbackUrl(CALLBACKS_URL, "downloader", "id1");
+
+        assertThat(url, startsWith("http://das/rest/das/callbacks/downloader/id1?signature="));
+        String signature = UriComponentsBuilder.fromUriString(url).build()
+                .getQueryParams().getFirst(CallbackSigner.SIGNATURE_PARAM);
+        assertThat(signer.verify("downloader", "id1", signature), equalTo(true));
+    }
+
+    @Test
+    public void verify_otherRequest_rejected() {
+        String signature = signer.sign("downloader", "id1");
+
+        assertThat(signer.verify("downloader", "id2", signature), equalTo(false));
+        assertThat(signer.verify("metadata", "id1", signature), equalTo(false));
+        assertThat(new CallbackSigner("other").verify("downloader", "id1", signature), equalTo(false));
+    }
+
+    @Test
+    public void getCallbackUrl_noKey_notSigned() {
+        CallbackSigner disabled = new CallbackSigner("");
+
+        assertThat(disabled.getCallbackUrl(CALLBACKS_URL, "metadata", "id1"),
+                equalTo("http://das/rest/das/callbacks/metadata/id1"));
+        assertThat(disabled.verify("metadata", "id1", "anything"), equalTo(false));
+    }
+}
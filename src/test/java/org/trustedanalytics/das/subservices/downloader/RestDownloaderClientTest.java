@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2015 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trustedanalytics.das.subservices.downloader;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestOperations;
+import org.trustedanalytics.das.parser.Request;
+import org.trustedanalytics.das.subservices.callbacks.CallbackSigner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RestDownloaderClientTest {
+
+    @Mock
+    private RestOperations restTemplate;
+
+    private RestDownloaderClient client;
+
+    @Before
+    public void setUp() {
+        client = new RestDownloaderClient(restTemplate, null, "http://downloader",
+            "http://das/rest/das/callbacks/{app}/{requestId}", new CallbackSigner(""));
+        // answers with the token the call was authenticated with
+        when(restTemplate.postForObject(anyString(), any(HttpEntity.class), eq(DownloadStatus.class)))
+            .thenAnswer(invocation -> {
+                HttpEntity<?> entity = (HttpEntity<?>) invocation.getArguments()[1];
+                DownloadStatus status = new DownloadStatus();
+                status.setState(entity.getHeaders().getFirst(HttpHeaders.AUTHORIZATION));
+                return status;
+            });
+    }
+
+    @Test
+    public void download_concurrentCalls_eachSentWithOwnToken() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String token = "token" + i;
+            Request request = new Request.RequestBuilder(1, "http://foo/bar.txt")
+                .withId("id" + i).withOrgId("org").withToken(token).build();
+            results.add(executor.submit(() -> ("bearer " + token).equals(client.download(request).getState())));
+        }
+
+        for (Future<Boolean> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS), equalTo(true));
+        }
+        executor.shutdown();
+    }
+}